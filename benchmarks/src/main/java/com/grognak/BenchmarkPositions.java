@@ -0,0 +1,54 @@
+package com.grognak;
+
+/**
+ * The fixed positions every benchmark runs on, so results stay comparable
+ * from one change to the next.
+ */
+final class BenchmarkPositions {
+    static final String OPENING = "opening";
+    static final String MIDDLEGAME = "middlegame";
+    static final String ENDGAME = "endgame";
+
+    private BenchmarkPositions() {
+    }
+
+    static Position get(String name) {
+        switch (name) {
+            case OPENING:
+                return new Position(new int[][] {
+                        {00, 00, 00, 19, 00, 00, 00},
+                        {12, 12, 12, 00, 16, 16, 16},
+                        {15, 15, 15, 00, 11, 11, 11},
+                        {00, 00, 00, 00, 00, 00, 00},
+                        {00, 00, 00, 00, 00, 00, 00},
+                        {21, 21, 21, 00, 25, 25, 25},
+                        {26, 26, 26, 00, 22, 22, 22},
+                        {00, 00, 00, 29, 00, 00, 00},
+                }, Position.CPUAI);
+            case MIDDLEGAME:
+                return new Position(new int[][] {
+                        {00, 00, 00, 19, 00, 00, 00},
+                        {12, 00, 00, 00, 00, 16, 16},
+                        {00, 15, 00, 00, 00, 00, 11},
+                        {00, 21, 15, 12, 00, 25, 00},
+                        {00, 00, 00, 12, 16, 00, 25},
+                        {21, 00, 26, 00, 00, 22, 00},
+                        {26, 00, 26, 00, 00, 22, 00},
+                        {00, 00, 00, 29, 00, 00, 00},
+                }, Position.HUMAN);
+            case ENDGAME:
+                return new Position(new int[][] {
+                        {00, 26, 00, 19, 00, 00, 00},
+                        {12, 00, 00, 00, 00, 00, 00},
+                        {00, 00, 16, 00, 00, 00, 00},
+                        {00, 00, 00, 00, 21, 00, 00},
+                        {11, 00, 00, 00, 00, 00, 11},
+                        {00, 00, 00, 00, 00, 21, 11},
+                        {00, 00, 00, 00, 00, 00, 00},
+                        {00, 00, 00, 29, 00, 16, 00},
+                }, Position.HUMAN);
+            default:
+                throw new IllegalArgumentException("Unknown position: " + name);
+        }
+    }
+}
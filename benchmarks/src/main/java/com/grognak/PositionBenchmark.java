@@ -0,0 +1,80 @@
+package com.grognak;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Move generation, make/unmake (which also covers the attacks and the
+ * incremental Zobrist key they update) and the static evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+    @Param({ BenchmarkPositions.OPENING, BenchmarkPositions.MIDDLEGAME, BenchmarkPositions.ENDGAME })
+    String position;
+
+    private Position board;
+    private int[] moves;
+    private int moveCount;
+    private int[] buffer;
+    private SearchWorker evaluator;
+
+    @Setup
+    public void setUp() {
+        board = BenchmarkPositions.get(position);
+        moves = new int[Position.MAX_MOVES];
+        moveCount = board.generateMoves(board.sideToMove(), moves);
+        buffer = new int[Position.MAX_MOVES];
+        evaluator = new SearchWorker(0, new TranspositionTable(1), null);
+        evaluator.setPosition(board, TimeManager.forPondering());
+    }
+
+    @Benchmark
+    public int generateMoves() {
+        return board.generateMoves(board.sideToMove(), buffer);
+    }
+
+    @Benchmark
+    public int generateAttacks() {
+        return board.generateAttacks(board.sideToMove(), buffer);
+    }
+
+    @Benchmark
+    public int countMoves() {
+        return board.countMoves(Position.CPUAI) + board.countMoves(Position.HUMAN);
+    }
+
+    /** Every move of the position made and taken back, folding in the hash after each. */
+    @Benchmark
+    public long makeUnmakeMoves() {
+        long hashes = 0;
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            hashes ^= board.hash();
+            board.unmakeMove();
+        }
+        return hashes;
+    }
+
+    /** Leaves of the raw move tree four plies deep, the same count {@link Perft} reports. */
+    @Benchmark
+    public long perft() throws Exception {
+        return new Perft(1).count(board, 4);
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return evaluator.staticScore();
+    }
+}
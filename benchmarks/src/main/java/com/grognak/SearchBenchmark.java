@@ -0,0 +1,67 @@
+package com.grognak;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single-threaded fixed-depth search. Every invocation starts from an
+ * empty table, no killers and no history, so each one explores the same
+ * tree. The worker and its buffers are made once per trial, so what the GC
+ * profiler reports is allocated by the search itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int HASH_MB = 16;
+
+    @Param({ BenchmarkPositions.OPENING, BenchmarkPositions.MIDDLEGAME, BenchmarkPositions.ENDGAME })
+    String position;
+
+    @Param({ "6" })
+    int depth;
+
+    private Position board;
+    private TranspositionTable table;
+    private SearchWorker worker;
+    private TimeManager timeManager;
+
+    @Setup
+    public void setUp() {
+        board = BenchmarkPositions.get(position);
+        table = new TranspositionTable(HASH_MB);
+        worker = new SearchWorker(0, table, null);
+        timeManager = TimeManager.forPondering(); // Never stops by itself
+    }
+
+    @Setup(Level.Invocation)
+    public void newSearch() {
+        table.clear();
+        worker.clearHistory();
+        worker.setPosition(board, timeManager); // Clears the killers
+    }
+
+    @Benchmark
+    public int search() {
+        int move = 0;
+        for (int d = 1; d <= depth; d++) {
+            move = worker.iterate(d);
+        }
+        return move;
+    }
+}
@@ -0,0 +1,205 @@
+package com.grognak;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Deep search results kept in a file, for analysis and self-play runs that
+ * keep coming back to the same positions: a root position searched once to
+ * a good depth is a lookup the next time, in this run or a later one.
+ *
+ * The file is memory-mapped read-write, so opening it costs nothing however
+ * full it is, and several engine processes on one machine can open the same
+ * file and share what each of them stores. Writes land in the page cache and
+ * the operating system writes them back, so a process that exits or is
+ * killed loses nothing.
+ *
+ * After a 64-byte header, the file is buckets of four entries, one cache
+ * line each. An entry is a pair of longs like a {@link TranspositionTable}
+ * entry, the key XORed with the data and the data:
+ *
+ * <pre>
+ *  bits  0-31  score
+ *  bits 32-43  best move (from | to << 6)
+ *  bits 44-51  depth
+ *  bits 52-63  hour it was stored or last used
+ * </pre>
+ *
+ * and is read back only if the two give the probed key, so an entry torn by
+ * two writers at once, in this process or another, reads as a miss. Keys are
+ * {@link Position#canonicalHash()}, which comes from fixed Zobrist keys and
+ * so means the same position in every process, XORed with the
+ * {@link EngineOptions#fingerprint()} of the searcher: a result is only
+ * found again by a search with the same options and evaluation weights.
+ *
+ * The file never grows. A store goes to the entry of the same position, if
+ * it isn't deeper already, or else to an empty entry, or else evicts the
+ * entry of its bucket that was used longest ago, the shallower one of two
+ * from the same hour. Using an entry marks it with the current hour, so the
+ * lines that keep getting analyzed stay while the rest age out.
+ *
+ * Results are whatever the engine that stored them found, so a file is best
+ * kept to one version of the engine. Several sets of options can share it,
+ * each one filling it with its own results.
+ */
+class AnalysisCache {
+    /** Shallower results are cheap to search again, and aren't kept, unless they found the game decided. */
+    static final int MIN_DEPTH = Integer.getInteger("kami.cacheDepth", 8);
+    static final int MAX_SIZE_MB = 1024; // One mapping holds at most 2 GB
+
+    private static final long MAGIC = 0x4B414D4943414348L; // "KAMICACH"
+    private static final int VERSION = 2; // Keys include the options fingerprint
+    private static final int HEADER_BYTES = 64;
+    private static final int ENTRIES = 4;
+    private static final int ENTRY_BYTES = 16;
+    private static final int BUCKET_BYTES = ENTRIES * ENTRY_BYTES;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private final MappedByteBuffer buffer;
+    private final int bucketMask;
+
+    private AnalysisCache(MappedByteBuffer buffer, int buckets) {
+        this.buffer = buffer;
+        this.bucketMask = buckets - 1;
+    }
+
+    /**
+     * Maps {@code file}, creating it with room for {@code sizeMb} if it
+     * doesn't exist. An existing file keeps the size it was created with.
+     */
+    static AnalysisCache open(File file, int sizeMb) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            FileLock lock = channel.lock(); // Another process may be creating it right now
+            try {
+                return map(file, channel, sizeMb);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static AnalysisCache map(File file, FileChannel channel, int sizeMb) throws IOException {
+        if (channel.size() == 0) {
+            long bytes = Math.max(1, Math.min(sizeMb, MAX_SIZE_MB)) * 1024L * 1024L;
+            int buckets = Integer.highestOneBit((int) (bytes / BUCKET_BYTES));
+
+            // Mapping past the end grows the file, with every entry empty
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) buckets * BUCKET_BYTES);
+            buffer.putInt(8, VERSION);
+            buffer.putInt(12, buckets);
+            buffer.putLong(16, Position.ZOBRIST_SEED);
+            buffer.putLong(0, MAGIC);
+            return new AnalysisCache(buffer, buckets);
+        }
+
+        // The mapping stays valid after the channel is closed
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        int buckets = buffer.getInt(12);
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION || buffer.getLong(16) != Position.ZOBRIST_SEED
+                || Integer.bitCount(buckets) != 1 || channel.size() != HEADER_BYTES + (long) buckets * BUCKET_BYTES) {
+            throw new IOException("Not an analysis cache of this version: " + file);
+        }
+        return new AnalysisCache(buffer, buckets);
+    }
+
+    /**
+     * @param fingerprint the {@link EngineOptions#fingerprint()} of the search
+     * @return the data stored for {@code position} or its color flip, with
+     *         the move as played in {@code position}, or 0 on a miss
+     */
+    long probe(Position position, long fingerprint) {
+        long hash = position.canonicalHash() ^ fingerprint;
+        int bucket = bucket(hash);
+        for (int offset = bucket; offset < bucket + BUCKET_BYTES; offset += ENTRY_BYTES) {
+            long data = buffer.getLong(offset + 8);
+            if (data == 0 || (buffer.getLong(offset) ^ data) != hash) continue;
+
+            int hour = currentHour();
+            if (hour(data) != hour) {
+                data = data & ~(0xFFFL << 52) | (long) hour << 52;
+                write(offset, hash, data);
+            }
+            if (position.isCanonical()) return data;
+            return data & ~(0xFFFL << 32) | (long) Position.flipMove(move(data)) << 32;
+        }
+        return 0;
+    }
+
+    /** Keeps the result of searching {@code position} to {@code depth}, unless a deeper one is kept already. */
+    void store(Position position, long fingerprint, int move, int score, int depth) {
+        if (depth < MIN_DEPTH && !isDecided(score)) return;
+
+        long hash = position.canonicalHash() ^ fingerprint;
+        int hour = currentHour();
+        long data = (score & 0xFFFFFFFFL)
+                | (long) ((position.isCanonical() ? move : Position.flipMove(move)) & 0xFFF) << 32
+                | (long) Math.min(depth, 255) << 44
+                | (long) hour << 52;
+
+        int bucket = bucket(hash);
+        int victim = bucket;
+        int victimAge = -1;
+        int victimDepth = 0;
+        for (int offset = bucket; offset < bucket + BUCKET_BYTES; offset += ENTRY_BYTES) {
+            long existing = buffer.getLong(offset + 8);
+            if (existing != 0 && (buffer.getLong(offset) ^ existing) == hash) {
+                if (depth(existing) > depth) return;
+                victim = offset;
+                break;
+            }
+
+            int age = existing == 0 ? Integer.MAX_VALUE : (hour - hour(existing)) & 0xFFF;
+            if (age > victimAge || (age == victimAge && depth(existing) < victimDepth)) {
+                victim = offset;
+                victimAge = age;
+                victimDepth = depth(existing);
+            }
+        }
+        write(victim, hash, data);
+    }
+
+    int sizeMb() {
+        return (int) ((long) (bucketMask + 1) * BUCKET_BYTES / (1024 * 1024));
+    }
+
+    /** A reader that catches the entry between the two writes finds a pair that doesn't match: a miss. */
+    private void write(int offset, long hash, long data) {
+        buffer.putLong(offset + 8, data);
+        buffer.putLong(offset, hash ^ data);
+    }
+
+    private int bucket(long hash) {
+        return HEADER_BYTES + ((int) hash & bucketMask) * BUCKET_BYTES;
+    }
+
+    /** Wraps after about six months, long after anything it would confuse has been evicted. */
+    private static int currentHour() {
+        return (int) (System.currentTimeMillis() / HOUR_MILLIS) & 0xFFF;
+    }
+
+    /** A King kill or a side out of moves was found, so searching deeper can't change the result. */
+    static boolean isDecided(int score) {
+        return Math.abs(score) >= SearchWorker.WIN;
+    }
+
+    static int score(long data) {
+        return (int) data;
+    }
+
+    static int move(long data) {
+        return (int) (data >>> 32) & 0xFFF;
+    }
+
+    static int depth(long data) {
+        return (int) (data >>> 44) & 0xFF;
+    }
+
+    private static int hour(long data) {
+        return (int) (data >>> 52) & 0xFFF;
+    }
+}
@@ -0,0 +1,178 @@
+package com.grognak;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Analyzes every position in a file, to compare evaluation or search
+ * changes over a large, fixed set of positions:
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.Analyze positions.txt [--depth N] [--nodes N] [--movetime MS]
+ *        [--threads N] [--hash MB] [--options material=10,mobility=5] [--cache FILE] [--out results.tsv]
+ * </pre>
+ *
+ * The file has one position per line, as written by {@link Position#toText()};
+ * blank lines and lines starting with {@code #} are skipped. Without limits
+ * each position is searched to depth 8.
+ *
+ * Positions are searched in parallel on a {@link SearchService}, each with a
+ * fresh table of its own, so a result doesn't depend on which positions were
+ * searched before it. With {@code --cache}, positions the {@link AnalysisCache}
+ * file already holds deep enough are answered from it, and the rest are
+ * added to it, so analyzing the same file again costs a lookup per
+ * position. Each result is written as soon as it is ready, one
+ * tab separated line per position:
+ *
+ * <pre>
+ *   line  position  move  score  depth  nodes  time
+ * </pre>
+ *
+ * so the lines come in the order the searches finish, and the line number
+ * ties them back to the input. The move is in the usual {@code A6A5} form,
+ * or {@code none} if the side to move has no moves, and the score is from
+ * the side to move's point of view. Only a few positions per thread are read
+ * ahead, so the file can be as long as you like.
+ */
+class Analyze {
+    private static final int DEFAULT_DEPTH = 8;
+    private static final int READ_AHEAD = 4; // Positions queued per thread
+
+    public static void main(String[] args) throws Exception {
+        String input = null;
+        String output = null;
+        int depth = SearchWorker.MAX_DEPTH;
+        long nodes = 0;
+        long movetime = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashMb = 4;
+        EngineOptions options = EngineOptions.DEFAULT;
+        AnalysisCache cache = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "--nodes":
+                    nodes = Long.parseLong(args[++i]);
+                    break;
+                case "--movetime":
+                    movetime = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--hash":
+                    hashMb = Integer.parseInt(args[++i]);
+                    break;
+                case "--options":
+                    options = EngineOptions.parse(args[++i]);
+                    break;
+                case "--cache":
+                    cache = AnalysisCache.open(new File(args[++i]), Integer.getInteger("kami.cacheMb", 256));
+                    break;
+                case "--out":
+                    output = args[++i];
+                    break;
+                default:
+                    input = args[i];
+            }
+        }
+        if (input == null) {
+            System.err.println("Usage: Analyze positions.txt [--depth N] [--nodes N] [--movetime MS] [--threads N] [--hash MB] [--options ...] [--cache FILE] [--out FILE]");
+            System.exit(2);
+        }
+        if (depth == SearchWorker.MAX_DEPTH && nodes == 0 && movetime == 0) {
+            depth = DEFAULT_DEPTH;
+        }
+
+        SearchLimits limits = new SearchLimits(depth, nodes, movetime);
+        if (output == null) {
+            new Analyze(System.out).run(input, limits, threads, hashMb, options, cache);
+            System.out.flush();
+            return;
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(output), false, "UTF-8")) {
+            new Analyze(out).run(input, limits, threads, hashMb, options, cache);
+        }
+    }
+
+    private final PrintStream out;
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong totalNodes = new AtomicLong();
+
+    Analyze(PrintStream out) {
+        this.out = out;
+    }
+
+    void run(String input, SearchLimits limits, int threads, int hashMb, EngineOptions options, AnalysisCache cache)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        SearchService service = new SearchService(threads, hashMb, 0, null, cache, options, limits);
+        Semaphore readAhead = new Semaphore(threads * READ_AHEAD);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8))) {
+            out.println("line\tposition\tmove\tscore\tdepth\tnodes\ttime");
+
+            String text;
+            int lineNumber = 0;
+            while ((text = in.readLine()) != null) {
+                lineNumber++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) continue;
+
+                Position position;
+                try {
+                    position = Position.fromText(text);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Line " + lineNumber + ": " + e.getMessage());
+                    failed.incrementAndGet();
+                    continue;
+                }
+
+                readAhead.acquire();
+                int line = lineNumber;
+                service.openSession().search(position.snapshot(), limits).whenComplete((report, failure) -> {
+                    try {
+                        if (failure != null) {
+                            System.err.println("Line " + line + ": " + failure);
+                            failed.incrementAndGet();
+                        } else {
+                            write(line, position, report);
+                        }
+                    } finally {
+                        readAhead.release();
+                    }
+                });
+            }
+            readAhead.acquire(threads * READ_AHEAD); // Every search has finished and been written
+        } finally {
+            service.shutdown();
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+        System.err.printf("Analyzed %d positions (%d failed) in %d ms, %d nodes, %d nodes/s\n",
+                analyzed.get(), failed.get(), millis, totalNodes.get(), millis > 0 ? totalNodes.get() * 1000 / millis : 0);
+    }
+
+    private void write(int line, Position position, SearchReport report) {
+        String move = report.move() != 0 ? Position.toNotation(report.move()) : "none";
+        long nodes = report.totals().nodes;
+        synchronized (out) {
+            out.println(line + "\t" + position.toText() + "\t" + move + "\t" + report.score() + "\t"
+                    + report.depth() + "\t" + nodes + "\t" + report.millis());
+            out.flush();
+        }
+        analyzed.incrementAndGet();
+        totalNodes.addAndGet(nodes);
+    }
+}
@@ -0,0 +1,95 @@
+package com.grognak;
+
+/**
+ * The knobs that change how the engine plays: the evaluation weights and
+ * the selective search switches. Options are immutable, so two engines in
+ * the same process can play with different ones, as the {@link Match}
+ * runner does.
+ *
+ * Written as comma separated {@code name=value} pairs, for example
+ * {@code material=10,mobility=6,lmr=false}. Anything not mentioned keeps
+ * its default, which comes from the {@code kami.*} system properties, or
+ * for the weights from the {@link EvalWeights} file if there is one.
+ */
+final class EngineOptions {
+    static final EngineOptions DEFAULT = new EngineOptions(
+            Integer.getInteger("kami.material", EvalWeights.DEFAULT.material),
+            Integer.getInteger("kami.mobility", EvalWeights.DEFAULT.mobility),
+            Boolean.parseBoolean(System.getProperty("kami.lmr", "true")),
+            Boolean.parseBoolean(System.getProperty("kami.nullMove", "true")));
+
+    final int materialWeight;
+    final int mobilityWeight;
+    final boolean lateMoveReductions;
+    final boolean nullMove;
+
+    EngineOptions(int materialWeight, int mobilityWeight, boolean lateMoveReductions, boolean nullMove) {
+        this.materialWeight = materialWeight;
+        this.mobilityWeight = mobilityWeight;
+        this.lateMoveReductions = lateMoveReductions;
+        this.nullMove = nullMove;
+    }
+
+    /** Options from {@code text}, starting from the defaults. */
+    static EngineOptions parse(String text) {
+        int materialWeight = DEFAULT.materialWeight;
+        int mobilityWeight = DEFAULT.mobilityWeight;
+        boolean lateMoveReductions = DEFAULT.lateMoveReductions;
+        boolean nullMove = DEFAULT.nullMove;
+        for (String option : text.split(",")) {
+            if (option.trim().isEmpty()) continue;
+
+            String[] pair = option.split("=", 2);
+            if (pair.length != 2) throw new IllegalArgumentException("not name=value: " + option);
+            String value = pair[1].trim();
+            switch (pair[0].trim()) {
+                case "material":
+                    materialWeight = Integer.parseInt(value);
+                    break;
+                case "mobility":
+                    mobilityWeight = Integer.parseInt(value);
+                    break;
+                case "lmr":
+                    lateMoveReductions = Boolean.parseBoolean(value);
+                    break;
+                case "nullMove":
+                    nullMove = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + pair[0]);
+            }
+        }
+        return new EngineOptions(materialWeight, mobilityWeight, lateMoveReductions, nullMove);
+    }
+
+    /**
+     * Tells searches with these options apart from searches with any others,
+     * for the {@link AnalysisCache}: a hash of the options and of the piece
+     * tables every {@link Position} is evaluated with.
+     */
+    long fingerprint() {
+        long hash = mix(materialWeight);
+        hash = mix(hash + mobilityWeight);
+        hash = mix(hash + (lateMoveReductions ? 1 : 0));
+        hash = mix(hash + (nullMove ? 1 : 0));
+        for (int t = 0; t < EvalWeights.TYPES.length; t++) {
+            for (int square = 0; square < Position.SQUARES; square++) {
+                hash = mix(hash + EvalWeights.DEFAULT.pieceSquare(t, square));
+            }
+        }
+        return hash;
+    }
+
+    /** The SplitMix64 finalizer, so options that differ by a point still differ in every bit. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString() {
+        return "material=" + materialWeight + ",mobility=" + mobilityWeight
+                + ",lmr=" + lateMoveReductions + ",nullMove=" + nullMove;
+    }
+}
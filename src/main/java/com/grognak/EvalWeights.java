@@ -0,0 +1,147 @@
+package com.grognak;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The numbers the evaluation is made of: the material and mobility weights,
+ * and what each piece type is worth on each square. The built-in ones are
+ * 15 for a mini piece, 45 for a normal one, plus a point for every rank it
+ * has advanced; {@link Tune} fits better ones from recorded games.
+ *
+ * {@code -Dkami.weights=FILE} loads them at startup. The file is text, with
+ * {@code #} comments:
+ *
+ * <pre>
+ *   material 10
+ *   mobility 5
+ *   b
+ *     23 23 23 23 23 23 23
+ *     ...
+ * </pre>
+ *
+ * followed by a table for each of {@code b n r s} (mini ninja, ninja, mini
+ * samurai, samurai): eight rows of seven values, in material units, for
+ * the computer's pieces with rank 8 first. The human's pieces use the same
+ * table turned half way round, so a position and its color flip still
+ * evaluate the same. The King squares are ignored; the King itself isn't
+ * tuned, since losing it ends the game.
+ */
+final class EvalWeights {
+    static final int[] TYPES = { Position.MINI_NINJA, Position.NORM_NINJA, Position.MINI_SAMURAI, Position.NORM_SAMURAI };
+    private static final String LETTERS = "bnrs";
+
+    static final EvalWeights DEFAULT = load(System.getProperty("kami.weights"));
+
+    final int material;
+    final int mobility;
+    private final int[][] pieceSquare; // [type index][square], as the computer sees the board
+
+    EvalWeights(int material, int mobility, int[][] pieceSquare) {
+        this.material = material;
+        this.mobility = mobility;
+        this.pieceSquare = pieceSquare;
+    }
+
+    static EvalWeights builtIn() {
+        int[][] pieceSquare = new int[TYPES.length][Position.SQUARES];
+        for (int t = 0; t < TYPES.length; t++) {
+            int value = TYPES[t] == Position.MINI_NINJA || TYPES[t] == Position.MINI_SAMURAI ? 15 : 45;
+            for (int square = 0; square < Position.SQUARES; square++) {
+                pieceSquare[t][square] = value + Position.HEIGHT - square / Position.WIDTH;
+            }
+        }
+        return new EvalWeights(10, 5, pieceSquare);
+    }
+
+    private static EvalWeights load(String path) {
+        if (path == null) return builtIn();
+        try {
+            return read(new File(path));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't read the weights, using the built-in ones: " + e.getMessage());
+            return builtIn();
+        }
+    }
+
+    static EvalWeights read(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).replaceAll("#.*", "");
+        String[] tokens = text.trim().split("\\s+");
+        int next = 0;
+        int material = 0;
+        int mobility = 0;
+        int[][] pieceSquare = new int[TYPES.length][];
+        try {
+            while (next < tokens.length) {
+                String name = tokens[next++];
+                if (name.equals("material")) {
+                    material = Integer.parseInt(tokens[next++]);
+                } else if (name.equals("mobility")) {
+                    mobility = Integer.parseInt(tokens[next++]);
+                } else if (name.length() == 1 && LETTERS.contains(name)) {
+                    int[] table = new int[Position.SQUARES];
+                    for (int square = 0; square < table.length; square++) {
+                        table[square] = Integer.parseInt(tokens[next++]);
+                    }
+                    pieceSquare[LETTERS.indexOf(name)] = table;
+                } else {
+                    throw new IOException("Unexpected '" + name + "' in " + file);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("Malformed weights in " + file, e);
+        }
+
+        for (int t = 0; t < TYPES.length; t++) {
+            if (pieceSquare[t] == null) throw new IOException("No table for '" + LETTERS.charAt(t) + "' in " + file);
+        }
+        if (material <= 0) throw new IOException("No material weight in " + file);
+        return new EvalWeights(material, mobility, pieceSquare);
+    }
+
+    void write(File file, String comment) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("# " + comment);
+            out.println("material " + material);
+            out.println("mobility " + mobility);
+            for (int t = 0; t < TYPES.length; t++) {
+                out.println(LETTERS.charAt(t));
+                for (int y = 0; y < Position.HEIGHT; y++) {
+                    StringBuilder row = new StringBuilder(" ");
+                    for (int x = 0; x < Position.WIDTH; x++) {
+                        row.append(String.format(Locale.ROOT, " %3d", pieceSquare[t][y * Position.WIDTH + x]));
+                    }
+                    out.println(row);
+                }
+            }
+        }
+    }
+
+    /** Whether {@code other} values every piece on every square the same, whatever its material and mobility weights. */
+    boolean sameTables(EvalWeights other) {
+        return Arrays.deepEquals(pieceSquare, other.pieceSquare);
+    }
+
+    /** What a piece of type {@code TYPES[typeIndex]} is worth on {@code square}, as the computer sees the board. */
+    int pieceSquare(int typeIndex, int square) {
+        return pieceSquare[typeIndex][square];
+    }
+
+    /** What {@code piece}, of either side but not a King, is worth on {@code square}. */
+    int value(int piece, int square) {
+        int typeIndex = typeIndex(piece % 10);
+        return pieceSquare[typeIndex][Position.sideOf(piece) == Position.CPUAI ? square : Position.flipSquare(square)];
+    }
+
+    static int typeIndex(int type) {
+        for (int t = 0; t < TYPES.length; t++) {
+            if (TYPES[t] == type) return t;
+        }
+        throw new IllegalArgumentException("no table for piece type " + type);
+    }
+}
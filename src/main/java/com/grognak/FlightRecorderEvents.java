@@ -0,0 +1,181 @@
+package com.grognak;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+
+/**
+ * The search telemetry as JDK Flight Recorder events, to line up with the
+ * JVM's own events (GC, allocation, JIT) in a recording:
+ *
+ * <pre>
+ *   java -XX:StartFlightRecording=filename=kami.jfr -jar Kami-sama.jar
+ *   jfr print --events com.grognak.SearchIteration,com.grognak.Search kami.jfr
+ * </pre>
+ *
+ * Only {@link Searcher} touches this class, and only once it has checked
+ * that {@code jdk.jfr} exists, so the engine still runs on a Java 8 that
+ * has no Flight Recorder API: the class can't even be loaded without it.
+ * The events are only created between iterations, never in the search
+ * itself, and not at all unless a recording has been started, since
+ * setting up the event classes takes a few hundred milliseconds.
+ */
+final class FlightRecorderEvents {
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Sets up the event classes now, if a recording is already running, so
+     * the first search doesn't pay for it on its clock.
+     */
+    static void setUp() {
+        if (FlightRecorder.isInitialized()) {
+            new IterationEvent();
+            new SearchEvent();
+        }
+    }
+
+    /**
+     * Starts timing an event, to be handed back to one of the {@code commit}
+     * methods.
+     *
+     * @return the event, or null if nothing is recording
+     */
+    static Object begin(boolean search) {
+        if (!FlightRecorder.isInitialized()) return null;
+
+        Event event = search ? new SearchEvent() : new IterationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitIteration(Object started, SearchReport.Iteration iteration) {
+        IterationEvent event = (IterationEvent) started;
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        event.depth = iteration.depth;
+        event.selDepth = iteration.stats.selDepth;
+        event.move = iteration.move != 0 ? Position.toNotation(iteration.move) : null;
+        event.score = iteration.score;
+        event.nodes = iteration.nodes;
+        event.nodesPerSecond = iteration.nodesPerSecond();
+        event.tableHitRate = iteration.stats.tableHitRate();
+        event.tableCutRate = iteration.stats.tableCutRate();
+        event.firstMoveCutoffRate = iteration.stats.firstMoveCutoffRate();
+        event.commit();
+    }
+
+    static void commitSearch(Object started, SearchReport report) {
+        SearchEvent event = (SearchEvent) started;
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        SearchStats totals = report.totals();
+        event.depth = report.depth();
+        event.selDepth = totals.selDepth;
+        event.move = report.move() != 0 ? Position.toNotation(report.move()) : null;
+        event.score = report.score();
+        event.tablebase = report.isTablebaseMove();
+        event.threads = report.threads;
+        event.nodes = totals.nodes;
+        event.nodesPerSecond = report.nodesPerSecond();
+        event.tableHitRate = totals.tableHitRate();
+        event.tableCutRate = totals.tableCutRate();
+        event.firstMoveCutoffRate = totals.firstMoveCutoffRate();
+        event.allocatedBytes = report.allocatedBytes();
+        event.commit();
+    }
+
+    @Name("com.grognak.SearchIteration")
+    @Label("Search Iteration")
+    @Description("One finished iteration of the main search worker")
+    @Category({ "Kami-sama", "Search" })
+    @StackTrace(false)
+    static final class IterationEvent extends Event {
+        @Label("Depth")
+        int depth;
+
+        @Label("Selective Depth")
+        int selDepth;
+
+        @Label("Best Move")
+        String move;
+
+        @Label("Score")
+        int score;
+
+        @Label("Nodes")
+        @Description("Nodes of all workers so far")
+        long nodes;
+
+        @Label("Nodes per Second")
+        long nodesPerSecond;
+
+        @Label("Table Hit Rate")
+        @Percentage
+        double tableHitRate;
+
+        @Label("Table Cut Rate")
+        @Percentage
+        double tableCutRate;
+
+        @Label("First Move Cutoff Rate")
+        @Percentage
+        double firstMoveCutoffRate;
+    }
+
+    @Name("com.grognak.Search")
+    @Label("Search")
+    @Description("One search, from the position to the move played")
+    @Category({ "Kami-sama", "Search" })
+    @StackTrace(false)
+    static final class SearchEvent extends Event {
+        @Label("Depth")
+        int depth;
+
+        @Label("Selective Depth")
+        int selDepth;
+
+        @Label("Best Move")
+        String move;
+
+        @Label("Score")
+        int score;
+
+        @Label("Tablebase Move")
+        boolean tablebase;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Nodes per Second")
+        long nodesPerSecond;
+
+        @Label("Table Hit Rate")
+        @Percentage
+        double tableHitRate;
+
+        @Label("Table Cut Rate")
+        @Percentage
+        double tableCutRate;
+
+        @Label("First Move Cutoff Rate")
+        @Percentage
+        double firstMoveCutoffRate;
+
+        @Label("Allocated")
+        @Description("Bytes allocated by the search threads, or -1 if unknown")
+        @DataAmount
+        long allocatedBytes;
+    }
+}
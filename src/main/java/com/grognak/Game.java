@@ -2,38 +2,48 @@ package com.grognak;
 
 import com.diogonunes.jcdp.color.ColoredPrinter;
 import com.diogonunes.jcdp.color.api.Ansi;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
-import gnu.trove.map.hash.TLongObjectHashMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class Game {
     private static final boolean USING_PARALLEL = true;
     private static final boolean DEBUG = true;
-    private static ExecutorService executorService;
+    private static ExecutorService ponderService;
 
     private static final int CPUAI_RANGE = 10;
     private static final int HUMAN_RANGE = 20;
-    private static final int MAX_DEPTH = 50_000;
-
-    private TLongObjectHashMap<List<String>> zobristMapCPUAI;
-    private TLongObjectHashMap<List<String>> zobristMapHUMAN;
-    private long[][][] zobrist;
-    private int[][] board;
-    private boolean isGameOver;
+    private static final int MAX_DEPTH = SearchWorker.MAX_DEPTH;
+    private static final int HASH_MB = Integer.getInteger("kami.hash", 64);
+    private static final int MOVE_TIME_MS = Integer.getInteger("kami.moveTime", 5000);
+    private static final int THREADS = USING_PARALLEL
+            ? Integer.getInteger("kami.threads", Runtime.getRuntime().availableProcessors())
+            : 1;
+    private static final boolean PONDER = Boolean.parseBoolean(System.getProperty("kami.ponder", "true"));
+    private static final String TABLEBASE_PATH = System.getProperty("kami.tablebase"); // Off unless a directory is given
+    private static final String WARMUP = System.getProperty("kami.warmup", "quick"); // quick, full (a 10 s search) or none
+    private static Tablebase tablebase;
+
+    private Searcher searcher;
+    private Position position;
     private Scanner in;
 
-    private int totalPrunes;
-    private int totalNodes;
+    private Future<Integer> ponderSearch;
+    private TimeManager ponderTime;
+    private String ponderMove;
+    private boolean firstMoveReported;
 
     Game() {
         init();
-        warmupJVM();
+        long warmupMillis = warmupJVM();
         init();
+        System.out.printf("*** READY after %d ms (warm-up: %s, %d ms) ***\n",
+                ManagementFactory.getRuntimeMXBean().getUptime(), WARMUP, warmupMillis);
 
         boolean playerTurn;
         System.out.print("Hi, would you like to have the first turn (true/false)? ");
@@ -43,6 +53,7 @@ public class Game {
             System.out.println("Sorry, I didn't understand your answer. I'll give you the first turn.");
             playerTurn = true;
         }
+        position.setSideToMove(playerTurn ? Position.HUMAN : Position.CPUAI);
 
         System.out.println("\nWelcome! Here is a fresh, new board:");
         while (true) {
@@ -51,7 +62,8 @@ public class Game {
 
             printBoard();
 
-            if (isGameOver || validMoves.isEmpty()) {
+            if (position.isGameOver() || validMoves.isEmpty()) {
+                stopPondering();
                 String winner = !playerTurn ? "player" : "computer";
                 System.out.printf("Game over! The winner is the %s.\n", winner);
                 System.out.println("Press Ctrl+C to quit...");
@@ -63,265 +75,114 @@ public class Game {
             if (playerTurn) {
                 String move = getPlayerMove(validMoves);
                 System.out.println(performMove(move));
+                if (ponderSearch != null && !move.equals(ponderMove)) {
+                    stopPondering(); // Whatever it found is still in the table
+                }
             } else {
-                String move = getComputerMove(validMoves);
+                String move = getComputerMove();
 
                 System.out.println(performMove(move));
                 if (DEBUG) System.out.println("My options were: "+String.join(", ", validMoves));
-                garbageCollection();
+                if (PONDER) startPondering();
             }
 
             playerTurn = !playerTurn;
         }
     }
 
-    private String getComputerMove(List<String> validMoves) {
-        AtomicReference<String> move = new AtomicReference<>();
-        TimeLimiter timeLimiter = SimpleTimeLimiter.create(Executors.newFixedThreadPool(1));
+    private String getComputerMove() {
+        System.out.println("*** THINKING ***");
+        int move;
+        if (ponderSearch != null) {
+            System.out.println("*** PONDER HIT ***");
+            ponderTime.ponderHit(MOVE_TIME_MS);
+            move = awaitPondering();
+        } else {
+            move = search(position, new TimeManager(MOVE_TIME_MS), true);
+        }
 
-        int[][] backupBoard = Arrays.stream(board)
-                .map(int[]::clone)
-                .toArray(int[][]::new);
-        try {
-            System.out.println("*** THINKING ***");
-            if (DEBUG) totalPrunes = 0;
-            timeLimiter.runWithTimeout(() -> {
-                for (int depth = 1; depth <= MAX_DEPTH; depth++) {
-                    System.out.println("DEPTH: " + depth);
-                    String newMove = minimax(validMoves, depth);
-                    if (Thread.currentThread().isInterrupted()) {
-                        break;
-                    } else {
-                        System.out.println("New move: " + newMove);
-                        if (newMove != null) {
-                            move.set(newMove);
-                        }
-                    }
-                    if (isGameOver) { break; }
-                }
-                System.out.println("*** ;) ***");
-            }, 5, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            System.out.println("*** INTERRUPTED ***");
+        if (DEBUG) {
+            System.out.println(searcher.lastReport());
         }
-        try {
-            TimeUnit.MILLISECONDS.sleep(500);
-        } catch (InterruptedException e) {
-            System.out.println("*** SYNC ***");
+        if (!firstMoveReported) {
+            // To compare warm-up modes: how soon the first move came, and how deep it got
+            SearchReport report = searcher.lastReport();
+            System.out.printf("*** FIRST MOVE: depth %d in %d ms, %d ms after start ***\n",
+                    report.depth(), report.millis(), ManagementFactory.getRuntimeMXBean().getUptime());
+            firstMoveReported = true;
         }
-        if (DEBUG) System.out.printf("Total (nodes=%d, prunes=%d)\n", totalNodes, totalPrunes);
-        board = backupBoard;
 
-        return move.get();
+        return move != 0 ? Position.toNotation(move) : null;
     }
 
-    private String minimax(List<String> validMoves, int depth) {
-        int bestScore = Integer.MIN_VALUE;
-        String bestMove = null;
-
-        depth--;
-
-        int a = Integer.MIN_VALUE;
-        int b = Integer.MAX_VALUE;
-        for (String validMove : validMoves) {
-            int[][] backupBoard = Arrays.stream(board)
-                    .map(int[]::clone)
-                    .toArray(int[][]::new);
-
-            performMove(validMove);
-
-            if (isGameOver) {
-                bestMove = validMove;
-                board = backupBoard;
-                break;
-            }
+    /**
+     * Searches the position after the human's expected reply in the background
+     * while we wait for their move. The reply is the best move the last search
+     * left in the table for the current position.
+     */
+    private void startPondering() {
+        if (position.isGameOver()) return;
 
-            int score = min(depth, a, b);
-            if (score > bestScore) {
-                bestScore = score;
-                bestMove = validMove;
-            }
+        long entry = searcher.table().probe(position);
+        int reply = entry != 0 ? TranspositionTable.move(entry) : 0;
+        if (reply == 0 || !position.isValidMove(Position.HUMAN, reply)) return;
 
-            a = Math.max(a, bestScore);
-            isGameOver = false;
-            board = backupBoard;
-        }
+        Position ponderPosition = position.copy();
+        ponderPosition.performMove(reply);
+        if (ponderPosition.isGameOver()) return;
 
-        return bestMove;
+        ponderMove = Position.toNotation(reply);
+        ponderTime = TimeManager.forPondering();
+        ponderSearch = ponderService.submit(() -> search(ponderPosition, ponderTime, false));
+        if (DEBUG) System.out.println("Pondering on: " + ponderMove);
     }
 
-    private Integer min(int depth, int a, int b)  {
-        if (Thread.currentThread().isInterrupted()) {
-            return null;
-        }
-
-        int bestScore = Integer.MAX_VALUE;
-
-        if (depth == 0) {
-            return evaluate(depth);
-        } else {
-            depth--;
-        }
-
-        List<String> validMoves = getValidMoves(HUMAN_RANGE);
-        for (String validMove : validMoves) {
-            int[][] backupBoard = Arrays.stream(board)
-                    .map(int[]::clone)
-                    .toArray(int[][]::new);
+    private void stopPondering() {
+        if (ponderSearch == null) return;
 
-            performMove(validMove);
-
-            if (isGameOver) {
-                isGameOver = false;
-                board = backupBoard;
-                return Integer.MIN_VALUE;
-            }
-
-            int score = max(depth, a, b);
-            bestScore = Math.min(bestScore, score);
-            b = Math.min(b, bestScore);
-            board = backupBoard;
-
-            if (b <= a) {
-                if (DEBUG) totalPrunes++;
-                break;
-            }
-        }
-
-        return bestScore;
+        ponderTime.stop();
+        awaitPondering();
     }
 
-    private Integer max(int depth, int a, int b) {
-        if (Thread.currentThread().isInterrupted()) {
-            return null;
-        }
-
-        int bestScore = Integer.MIN_VALUE;
-
-        if (depth == 0) {
-            return evaluate(depth);
-        } else {
-            depth--;
-        }
-
-        List<String> validMoves = getValidMoves(CPUAI_RANGE);
-        for (String validMove : validMoves) {
-            int[][] backupBoard = Arrays.stream(board)
-                    .map(int[]::clone)
-                    .toArray(int[][]::new);
-
-            performMove(validMove);
-
-            if (isGameOver) {
-                isGameOver = false;
-                board = backupBoard;
-                return Integer.MAX_VALUE;
-            }
-
-            int score = min(depth, a, b);
-            bestScore = Math.max(bestScore, score);
-            a = Math.max(a, score);
-            board = backupBoard;
-
-            if (b <= a) {
-                if (DEBUG) totalPrunes++;
-                break;
-            }
+    private int awaitPondering() {
+        try {
+            return ponderSearch.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            ponderSearch = null;
         }
-
-        return bestScore;
-    }
-
-    private int evaluate(int depth) {
-        if (DEBUG) totalNodes++;
-        return  10*(scorePieces(CPUAI_RANGE, depth) - scorePieces(HUMAN_RANGE, depth)) +
-                5*(getValidMoves(CPUAI_RANGE).size() - getValidMoves(HUMAN_RANGE).size());
     }
 
-    private int scorePieces(int range, int depth) {
-        int score = 0;
-
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 7; x++) {
-                int pieceType = board[y][x] - range;
-                if (pieceType >= 0 && pieceType <= 9) {
-                    if (range == CPUAI_RANGE) {
-                        score += 8 - y;
-                    } else {
-                        score += y;
-                    }
-
-                    switch (pieceType) {
-                        case 1: // Mini Ninja
-                        case 5: // Mini Samurai
-                            score += 15;
-                            break;
-                        case 2: // Norm Ninja
-                        case 6: // Norm Samurai
-                            score += 45;
-                            break;
-                        case 9: // The King
-                            score += 1000000 - (depth*1000);
-                            break;
-                        default:
-                            throw new IllegalStateException();
-                    }
-                }
+    /** Runs the searcher, printing each finished iteration if {@code verbose}. */
+    private int search(Position root, TimeManager timeManager, boolean verbose) {
+        Searcher.Listener listener = !verbose ? null : iteration -> {
+            if (iteration.depth == 0) {
+                System.out.println("Tablebase move: " + Position.toNotation(iteration.move) + " (score " + iteration.score + ")");
+                return;
             }
-        }
-
-        return score;
+            System.out.printf("DEPTH: %d (seldepth %d, %d nodes, %d nodes/s, %d ms)\n", iteration.depth,
+                    iteration.stats.selDepth, iteration.nodes, iteration.nodesPerSecond(), iteration.millis);
+            System.out.println("New move: " + (iteration.move != 0 ? Position.toNotation(iteration.move) : null) + " (score " + iteration.score + ")");
+        };
+        int move = searcher.search(root, timeManager, MAX_DEPTH, listener);
+        if (verbose) System.out.printf("*** ;) *** (%d ms)\n", timeManager.elapsedMillis());
+        return move;
     }
 
     private String performMove(String move) {
-        char[] chars = move.toCharArray(); // Algebraic notation
-        int x1 = chars[0] - 'A';
-        int y1 = 8 - (chars[1] - '0');
-        int x2 = chars[2] - 'A';
-        int y2 = 8 - (chars[3] - '0');
-
-        return performMove(y1, x1, y2, x2);
-    }
-
-    private String performMove(int y1, int x1, int y2, int x2) {
-        int piece = board[y1][x1];
-        board[y1][x1] = 00;
-        board[y2][x2] = piece;
-
-        boolean attackPerformed = performAttack(y2, x2);
+        int validMove = Position.fromNotation(move);
+        int from = Position.from(validMove);
+        int to = Position.to(validMove);
+        int y1 = from / Position.WIDTH;
+        int x1 = from % Position.WIDTH;
+        int y2 = to / Position.WIDTH;
+        int x2 = to % Position.WIDTH;
+
+        boolean attackPerformed = position.performMove(validMove);
         return String.format("\nMove: %s (%s) %s", getAlgebraicNotation(y1, x1, y2, x2), getInverseNotation(y1, x1, y2, x2), attackPerformed? "Hi-YA!" : "");
     }
 
-    private boolean performAttack(int y, int x) {
-        int rangeAttacker = (board[y][x] / 10) * 10; // Integer division sets the ones place to 0
-        int forwardY = (rangeAttacker == CPUAI_RANGE) ? 1 : -1;
-
-        if (!inBounds(y+forwardY, x)) return false; // Attack would land off the board
-
-        int rangeDefender = (board[y+forwardY][x] / 10) * 10;
-        if (rangeDefender == 0 || rangeDefender == rangeAttacker) return false; // Not a valid target
-
-        // If we're this far, we have a valid target that we are going to attack.
-        switch (board[y+forwardY][x] % 10) {
-            case 1: // Mini Ninja
-            case 5: // Mini Samurai
-                board[y+forwardY][x] = 00; // The mini pieces are killed
-                break;
-            case 2: // Norm Ninja
-            case 6: // Norm Samurai
-                board[y+forwardY][x]--; // Demote the piece
-                break;
-            case 9: // The King!
-                board[y+forwardY][x] = 00; // The King is killed - game over
-                isGameOver = true;
-                break;
-            default:
-                throw new IllegalStateException();
-        }
-
-        return true;
-    }
-
     private String getPlayerMove(List<String> validMoves) {
         String move;
 
@@ -339,159 +200,18 @@ public class Game {
     }
 
     private List<String> getValidMoves(int range) {
-        // Check Zobrist table
-        long hash = hash(range);
-        List<String> zobristList;
-
-        if (range == CPUAI_RANGE) {
-            zobristList = zobristMapCPUAI.get(hash);
-        } else {
-            zobristList = zobristMapHUMAN.get(hash);
-        }
-
-        if (zobristList != null) {
-            return zobristList;
-        }
+        int side = (range == CPUAI_RANGE) ? Position.CPUAI : Position.HUMAN;
+        int[] moves = new int[Position.MAX_MOVES];
+        int moveCount = position.generateMoves(side, moves);
 
-        // We have to calculate the moves
-        List<String> validMoves = new ArrayList<>();
-        int forwardY = (range == CPUAI_RANGE) ? 1 : -1; // The computer considers down (+y) as "forward"
-
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 7; x++) {
-                int pieceType = board[y][x] - range;
-                if (pieceType >= 0 && pieceType <= 9) {
-                    addValidMoves(validMoves, y, x, forwardY, range);
-                }
-            }
-        }
-
-        // Add valid moves to Zobrist map
-        if (range == CPUAI_RANGE) {
-            zobristMapCPUAI.put(hash, validMoves);
-        } else {
-            zobristMapHUMAN.put(hash, validMoves);
+        List<String> validMoves = new ArrayList<>(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            validMoves.add(Position.toNotation(moves[i]));
         }
 
         return validMoves;
     }
 
-    private void addValidMoves(List<String> validMoves, int y, int x, int forwardY, int range) {
-        boolean isMini = false;
-        int testY;
-        int testX;
-
-        switch (board[y][x] % 10) {
-            case 1: // Mini Ninja
-                isMini = true;
-            case 2: // Norm Ninja
-                testY = y;
-                testX = x;
-                do {
-                    // Forward left
-                    testY += forwardY;
-                    testX -= 1;
-
-                    if(inBounds(testY, testX) && board[testY][testX] == 00) {
-                        validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                    } else break;
-                } while (!isMini);
-
-                testY = y;
-                testX = x;
-                do {
-                    // Forward right
-                    testY += forwardY;
-                    testX += 1;
-
-                    if(inBounds(testY, testX) && board[testY][testX] == 00) {
-                        validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                    } else break;
-                } while (!isMini);
-
-                testY = y;
-                testX = x;
-                do {
-                    // Back left
-                    testY -= forwardY;
-                    testX -= 1;
-
-                    if(inBounds(testY, testX) && inBounds(testY+forwardY, testX) && board[testY][testX] == 00) {
-                        int victimPiece = board[testY+forwardY][testX];
-                        if (victimPiece != 00 && !(victimPiece > range && victimPiece < range+10)) {
-                            // There is an enemy piece that we can attack
-                            validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                        }
-                    } else break;
-                } while (!isMini);
-
-                testY = y;
-                testX = x;
-                do {
-                    // Back right
-                    testY -= forwardY;
-                    testX += 1;
-
-                    if(inBounds(testY, testX) && inBounds(testY+forwardY, testX) && board[testY][testX] == 00) {
-                        int victimPiece = board[testY+forwardY][testX];
-                        if (victimPiece != 00 && !(victimPiece > range && victimPiece < range+10)) {
-                            // There is an enemy piece that we can attack
-                            validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                        }
-                    } else break;
-                } while (!isMini);
-
-                break;
-            case 5: // Mini Samurai
-                isMini = true;
-            case 6: // Norm Samurai
-                testY = y;
-                testX = x;
-                do {
-                    // Forward
-                    testY += forwardY;
-
-                    if(inBounds(testY, testX) && board[testY][testX] == 00) {
-                        validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                    } else break;
-                } while (!isMini);
-
-                testY = y;
-                testX = x;
-                do {
-                    // Left
-                    testX -= 1;
-
-                    if(inBounds(testY, testX) && inBounds(testY+forwardY, testX) && board[testY][testX] == 00) {
-                        int victimPiece = board[testY+forwardY][testX];
-                        if (victimPiece != 00 && !(victimPiece > range && victimPiece < range+10)) {
-                            // There is an enemy piece that we can attack
-                            validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                        }
-                    } else break;
-                } while (!isMini);
-
-                testY = y;
-                testX = x;
-                do {
-                    // Right
-                    testX += 1;
-
-                    if(inBounds(testY, testX) && inBounds(testY+forwardY, testX) && board[testY][testX] == 00) {
-                        int victimPiece = board[testY+forwardY][testX];
-                        if (victimPiece != 00 && !(victimPiece > range && victimPiece < range+10)) {
-                            // There is an enemy piece that we can attack
-                            validMoves.add(getAlgebraicNotation(y, x, testY, testX));
-                        }
-                    } else break;
-                } while (!isMini);
-
-                break;
-            case 9: // The King
-                // The King has no possible moves.
-        }
-    }
-
     private String getAlgebraicNotation(int fromY, int fromX, int toY, int toX) {
         return new String(new char[] {
                 (char)((int)'A' + fromX),
@@ -510,58 +230,8 @@ public class Game {
         });
     }
 
-    // TODO this can probably be removed
-    private int moveToHistoryIndex(String move) {
-        char[] chars = move.toCharArray(); // Algebraic notation
-        int x1 = chars[0] - 'A';
-        int y1 = 8 - (chars[1] - '0');
-        int x2 = chars[2] - 'A';
-        int y2 = 8 - (chars[3] - '0');
-
-        return moveToHistoryIndex(y1, x1, y2, x2);
-    }
-
-    private int moveToHistoryIndex(int fromY, int fromX, int toY, int toX) {
-        return fromY * 1000
-                + fromX * 100
-                + toY * 10
-                + toX;
-    }
-
-    static private int[] hashReference;
-    static {
-        hashReference = new int[30];
-        hashReference[00] = 0;
-        hashReference[11] = 1;
-        hashReference[12] = 2;
-        hashReference[15] = 3;
-        hashReference[16] = 4;
-        hashReference[19] = 5;
-        hashReference[21] = 6;
-        hashReference[22] = 7;
-        hashReference[25] = 8;
-        hashReference[26] = 9;
-        hashReference[29] = 10;
-    }
-
-    private long hash(int range) {
-        long hash = 0;
-
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 7; x++) {
-                int piece = board[y][x];
-                hash ^= zobrist[y][x][hashReference[piece]];
-            }
-        }
-
-        return hash;
-    }
-
-    private boolean inBounds(int testY, int testX) {
-        return testX >= 0 && testX <= 6 && testY >= 0 && testY <= 7;
-    }
-
-    private void init() {
+    /** The board every game starts from. */
+    static int[][] initialBoard() {
     /* Pieces:
      * 00 - empty
      * Computer:
@@ -578,7 +248,7 @@ public class Game {
      *  26 - Norm Samurai
      *  29 - King
      */
-        board = new int[][] {
+        return new int[][] {
                 {00, 00, 00, 19, 00, 00, 00},
                 {12, 12, 12, 00, 16, 16, 16},
                 {15, 15, 15, 00, 11, 11, 11},
@@ -588,49 +258,50 @@ public class Game {
                 {26, 26, 26, 00, 22, 22, 22},
                 {00, 00, 00, 29, 00, 00, 00},
         };
+    }
 
-        zobristMapCPUAI = new TLongObjectHashMap<>();
-        zobristMapHUMAN = new TLongObjectHashMap<>();
-
-        Random random = new Random();
-        zobrist = new long[8][7][11];
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 7; x++) {
-                zobrist[y][x][0] = 0;
-                for (int p = 1; p < 10; p++) {
-                    zobrist[y][x][p] = random.nextLong();
-                }
+    private void init() {
+        position = new Position(initialBoard(), Position.CPUAI);
+
+        if (tablebase == null && TABLEBASE_PATH != null) {
+            try {
+                tablebase = Tablebase.open(new File(TABLEBASE_PATH));
+                System.out.println("Tablebase: up to " + tablebase.maxPieces() + " pieces");
+            } catch (IOException e) {
+                System.out.println("Couldn't open the tablebase, playing without it: " + e.getMessage());
             }
         }
 
-        isGameOver = false;
+        if (searcher != null) searcher.shutdown();
+        searcher = new Searcher(HASH_MB, THREADS, tablebase);
+        if (ponderService == null) {
+            ponderService = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("ponder").setDaemon(true).build());
+        }
+
         in = new Scanner(System.in);
     }
 
-    private void warmupJVM() {
+    private long warmupJVM() {
         // This prevents the slow first turn inherent on JIT-based systems.
         // IMPORTANT: Any "book-building" prohibited by the rules is overwritten
         // by an init() call immediately after this function.
 
-        List<String> validMoves = getValidMoves(CPUAI_RANGE);
-        TimeLimiter timeLimiter = SimpleTimeLimiter.create(Executors.newFixedThreadPool(1));
+        long start = System.nanoTime();
+        switch (WARMUP) {
+            case "none":
+                return 0;
+            case "full":
+                System.out.println("*** JVM WARMUP ***");
+                search(position, new TimeManager(10_000), true);
+                System.out.println("*** WARMUP FINISH ***");
 
-        System.out.println("*** JVM WARMUP ***");
-        try {
-            timeLimiter.runWithTimeout(() -> {
-                for (int depth = 1; depth <= MAX_DEPTH; depth++) {
-                    System.out.println("DEPTH: " + depth);
-                    minimax(validMoves, depth);
-                    if (Thread.currentThread().isInterrupted()) {
-                        break;
-                    }
-                }
-            }, 10, TimeUnit.SECONDS);
-        } catch (TimeoutException | InterruptedException e) {
-            System.out.println("*** WARMUP FINISH ***");
+                garbageCollection();
+                break;
+            default:
+                Warmup.run();
         }
-
-        garbageCollection();
+        return (System.nanoTime() - start) / 1_000_000L;
     }
 
     private void garbageCollection() {
@@ -654,7 +325,7 @@ public class Game {
         for(int y = 0; y < 8; y++) {
             coloredPrinter.print(String.format(" %d ", 8 - y));
             for (int x = 0; x < 7; x++) {
-                int piece = board[y][x];
+                int piece = position.pieceAt(y, x);
                 Ansi.BColor bColor = blueBG ? Ansi.BColor.BLUE : Ansi.BColor.BLACK;
                 Ansi.FColor fColor = piece >= 20 ? Ansi.FColor.WHITE : Ansi.FColor.GREEN;
                 Ansi.Attribute attribute = Ansi.Attribute.LIGHT;
@@ -670,7 +341,7 @@ public class Game {
         coloredPrinter.println("   --------------------- HUMAN");
         coloredPrinter.println("    A  B  C  D  E  F  G ");
 
-        System.out.printf("** TABLE SIZE: (cpuai=%d, human=%d)\n", zobristMapCPUAI.size(), zobristMapHUMAN.size());
+        System.out.printf("** TABLE SIZE: (%d MB, %d/1000 used)\n", searcher.table().sizeMb(), searcher.table().hashfull());
     }
 
     private String pieceToString(int piece) {
@@ -0,0 +1,346 @@
+package com.grognak;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Self-play between two {@link EngineOptions}, to tell whether a change to
+ * the evaluation or the search makes the engine stronger:
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.Match --a material=10,mobility=5 --b material=10,mobility=6
+ *        [--games N] [--threads N] [--nodes N | --movetime MS] [--random-plies N] [--hash MB] [--seed S]
+ *        [--elo0 E] [--elo1 E] [--alpha A] [--beta B] [--record FILE]
+ * </pre>
+ *
+ * Games are played in pairs from the same opening, a few random plies from
+ * the starting position, with each engine taking the first move once. Every
+ * thread builds its two engines once and reuses them for all its games, so
+ * no game pays for a warm-up or for allocating a table.
+ *
+ * The result is reported as B's score against A, with an Elo estimate, and
+ * a sequential probability ratio test of "B is elo0 stronger" against "B is
+ * elo1 stronger" stops the match as soon as either is accepted. A progress
+ * line is printed every {@link #REPORT_INTERVAL} games.
+ *
+ * With {@code --record}, every position of every game is written to the
+ * file with how the game ended, for {@link Tune}: the position as written
+ * by {@link Position#toText()}, then 1 if the computer side won, 0 if the
+ * human side won, or 0.5 for a game that had to be cut off.
+ */
+class Match {
+    private static final int REPORT_INTERVAL = 100;
+    private static final int MAX_GAME_PLIES = 500; // No real game gets near this: only attacks go backwards, and each costs a life
+
+    private final EngineOptions optionsA;
+    private final EngineOptions optionsB;
+    private final int games;
+    private final int threads;
+    private final SearchLimits limits;
+    private final int randomPlies;
+    private final int hashMb;
+    private final long seed;
+    private final Sprt sprt;
+    private final PrintWriter record; // Null unless games are recorded
+
+    private final AtomicInteger nextPair = new AtomicInteger();
+    private volatile boolean finished;
+    private int winsB;
+    private int lossesB;
+    private int draws;
+
+    Match(EngineOptions optionsA, EngineOptions optionsB, int games, int threads, long nodesPerMove,
+          long millisPerMove, int randomPlies, int hashMb, long seed, Sprt sprt, PrintWriter record) {
+        this.optionsA = optionsA;
+        this.optionsB = optionsB;
+        this.games = games;
+        this.threads = threads;
+        this.limits = new SearchLimits(SearchWorker.MAX_DEPTH, nodesPerMove, millisPerMove);
+        this.randomPlies = randomPlies;
+        this.hashMb = hashMb;
+        this.seed = seed;
+        this.sprt = sprt;
+        this.record = record;
+    }
+
+    public static void main(String[] args) throws Exception {
+        EngineOptions optionsA = EngineOptions.DEFAULT;
+        EngineOptions optionsB = EngineOptions.DEFAULT;
+        int games = 10000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long nodes = 20000;
+        long movetime = 0;
+        int randomPlies = 4;
+        int hashMb = 4;
+        long seed = System.nanoTime();
+        double elo0 = 0;
+        double elo1 = 5;
+        double alpha = 0.05;
+        double beta = 0.05;
+        String recordPath = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--a":
+                    optionsA = EngineOptions.parse(args[++i]);
+                    break;
+                case "--b":
+                    optionsB = EngineOptions.parse(args[++i]);
+                    break;
+                case "--games":
+                    games = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--nodes":
+                    nodes = Long.parseLong(args[++i]);
+                    movetime = 0;
+                    break;
+                case "--movetime":
+                    movetime = Long.parseLong(args[++i]);
+                    nodes = 0;
+                    break;
+                case "--random-plies":
+                    randomPlies = Integer.parseInt(args[++i]);
+                    break;
+                case "--hash":
+                    hashMb = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--elo0":
+                    elo0 = Double.parseDouble(args[++i]);
+                    break;
+                case "--elo1":
+                    elo1 = Double.parseDouble(args[++i]);
+                    break;
+                case "--alpha":
+                    alpha = Double.parseDouble(args[++i]);
+                    break;
+                case "--beta":
+                    beta = Double.parseDouble(args[++i]);
+                    break;
+                case "--record":
+                    recordPath = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        System.out.println("A: " + optionsA);
+        System.out.println("B: " + optionsB);
+        System.out.printf("%d games, %d threads, %s per move, %d random plies, seed %d, SPRT elo0=%.1f elo1=%.1f alpha=%.2f beta=%.2f\n",
+                games, threads, nodes > 0 ? nodes + " nodes" : movetime + " ms", randomPlies, seed, elo0, elo1, alpha, beta);
+
+        try (PrintWriter record = recordPath != null ? new PrintWriter(recordPath, "UTF-8") : null) {
+            Match match = new Match(optionsA, optionsB, games, threads, nodes, movetime, randomPlies, hashMb, seed,
+                    new Sprt(elo0, elo1, alpha, beta), record);
+            match.run();
+        }
+    }
+
+    void run() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("match-%d").build());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(this::playPairs));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        report(true);
+    }
+
+    /** One thread's share of the match: its own two engines, and openings until the match is over. */
+    private void playPairs() {
+        Searcher engineA = new Searcher(hashMb, 1, null, optionsA);
+        Searcher engineB = new Searcher(hashMb, 1, null, optionsB);
+        try {
+            int pair;
+            while (!finished && (pair = nextPair.getAndIncrement()) * 2 < games) {
+                Position opening = randomOpening(new Random(seed + pair));
+                record(play(opening, engineA, engineB));
+                if (pair * 2 + 1 < games && !finished) {
+                    record(-play(opening, engineB, engineA));
+                }
+            }
+        } finally {
+            engineA.shutdown();
+            engineB.shutdown();
+        }
+    }
+
+    private Position randomOpening(Random random) {
+        int[] moves = new int[Position.MAX_MOVES];
+        while (true) {
+            Position position = new Position(Game.initialBoard(), Position.CPUAI);
+            for (int ply = 0; ply < randomPlies && !position.isGameOver(); ply++) {
+                int count = position.generateMoves(position.sideToMove(), moves);
+                if (count == 0) break;
+                position.performMove(moves[random.nextInt(count)]);
+            }
+            if (!position.isGameOver() && position.countMoves(position.sideToMove()) > 0) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Plays one game, {@code second} answering {@code first}.
+     *
+     * @return 1 if {@code second} won, -1 if it lost, 0 for a game that had to be cut off
+     */
+    private int play(Position opening, Searcher first, Searcher second) {
+        first.newGame();
+        second.newGame();
+
+        Position position = opening.copy();
+        int secondSide = 1 - position.sideToMove();
+        List<String> positions = record != null ? new ArrayList<>() : null;
+        for (int ply = 0; ply < MAX_GAME_PLIES; ply++) {
+            int side = position.sideToMove();
+            if (position.isGameOver() || position.countMoves(side) == 0) {
+                // The side to move has lost its King or has nowhere to go
+                if (positions != null) writeRecord(positions, side == Position.CPUAI ? "0" : "1");
+                return side == secondSide ? -1 : 1;
+            }
+
+            if (positions != null) positions.add(position.toText());
+            Searcher engine = side == secondSide ? second : first;
+            position.performMove(engine.search(position, limits.newTimeManager(), limits.depth, null));
+        }
+        if (positions != null) writeRecord(positions, "0.5");
+        return 0;
+    }
+
+    private void writeRecord(List<String> positions, String result) {
+        synchronized (record) {
+            for (String position : positions) {
+                record.println(position + " " + result);
+            }
+        }
+    }
+
+    private void record(int result) {
+        boolean done;
+        synchronized (this) {
+            if (finished) return;
+
+            if (result > 0) winsB++;
+            else if (result < 0) lossesB++;
+            else draws++;
+
+            int played = winsB + lossesB + draws;
+            double llr = sprt.llr(winsB, draws, lossesB);
+            done = played >= games || llr >= sprt.upperBound() || llr <= sprt.lowerBound();
+            if (!done && played % REPORT_INTERVAL == 0) report(false);
+        }
+        if (done) finished = true;
+    }
+
+    private synchronized void report(boolean last) {
+        int played = winsB + lossesB + draws;
+        double llr = sprt.llr(winsB, draws, lossesB);
+        String verdict = "";
+        if (last) {
+            if (llr >= sprt.upperBound()) verdict = " H1 accepted: B is stronger";
+            else if (llr <= sprt.lowerBound()) verdict = " H0 accepted: B is not stronger";
+            else verdict = " inconclusive";
+        }
+        System.out.printf("Games %d: B %d-%d-%d  score %.1f%%  elo %+.1f +/- %.1f  LLR %.2f [%.2f, %.2f]%s\n",
+                played, winsB, lossesB, draws, 100 * Sprt.score(winsB, draws, lossesB),
+                Sprt.elo(winsB, draws, lossesB), Sprt.eloMargin(winsB, draws, lossesB),
+                llr, sprt.lowerBound(), sprt.upperBound(), verdict);
+    }
+
+    /**
+     * Sequential probability ratio test between two Elo differences, with the
+     * usual normal approximation of the log-likelihood ratio on the
+     * win/draw/loss counts.
+     */
+    static final class Sprt {
+        private final double elo0;
+        private final double elo1;
+        private final double alpha;
+        private final double beta;
+
+        Sprt(double elo0, double elo1, double alpha, double beta) {
+            this.elo0 = elo0;
+            this.elo1 = elo1;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        double lowerBound() {
+            return Math.log(beta / (1 - alpha));
+        }
+
+        double upperBound() {
+            return Math.log((1 - beta) / alpha);
+        }
+
+        double llr(int wins, int draws, int losses) {
+            int games = wins + draws + losses;
+            double variance = variance(wins, draws, losses);
+            if (games == 0 || variance == 0) return 0;
+
+            double score = score(wins, draws, losses);
+            double score0 = expectedScore(elo0);
+            double score1 = expectedScore(elo1);
+            return games * (score1 - score0) * (2 * score - score0 - score1) / (2 * variance);
+        }
+
+        static double score(int wins, int draws, int losses) {
+            int games = wins + draws + losses;
+            return games == 0 ? 0.5 : (wins + 0.5 * draws) / games;
+        }
+
+        static double elo(int wins, int draws, int losses) {
+            return eloOf(score(wins, draws, losses));
+        }
+
+        /** Half width of the 95% confidence interval of {@link #elo}. */
+        static double eloMargin(int wins, int draws, int losses) {
+            int games = wins + draws + losses;
+            if (games == 0) return 0;
+
+            double score = score(wins, draws, losses);
+            double error = 1.96 * Math.sqrt(variance(wins, draws, losses) / games);
+            return (eloOf(score + error) - eloOf(score - error)) / 2;
+        }
+
+        /** Variance of a single game's result. */
+        private static double variance(int wins, int draws, int losses) {
+            int games = wins + draws + losses;
+            if (games == 0) return 0;
+
+            double score = score(wins, draws, losses);
+            return (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score) + losses * score * score) / games;
+        }
+
+        private static double expectedScore(double elo) {
+            return 1 / (1 + Math.pow(10, -elo / 400));
+        }
+
+        private static double eloOf(double score) {
+            double clamped = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+            return -400 * Math.log10(1 / clamped - 1);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.grognak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaves of the raw move tree, with none of the search's pruning
+ * or tables in the way, to check the move generator and time it:
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.Perft [--divide] [--human] [--threads N] depth
+ *   java -cp Kami-sama.jar com.grognak.Perft --verify [--threads N]
+ * </pre>
+ *
+ * A leaf is a sequence of exactly {@code depth} valid moves from the
+ * starting position. A line stops counting once an attack kills a King, and
+ * once a side has no moves, since the game is over there.
+ *
+ * {@code --divide} prints the count under each root move, so a wrong total
+ * can be narrowed down to a move. {@code --verify} checks the counts from
+ * the starting position against the reference counts below, for either side
+ * to move, and exits with status 1 on any mismatch. {@code PerftTest} checks
+ * the same counts up to depth 5 on every build.
+ */
+class Perft {
+    /* Leaves from the starting position, by depth (index 0 is depth 1). The board is symmetric, so both sides agree. */
+    private static final long[] CPUAI_REFERENCE = { 11, 127, 1591, 20415, 267601, 3544502, 47449094 };
+    private static final long[] HUMAN_REFERENCE = { 11, 127, 1591, 20415, 267601, 3544502, 47449094 };
+
+    private final int threads;
+
+    Perft(int threads) {
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean divide = false;
+        boolean verify = false;
+        int side = Position.CPUAI;
+        int threads = 1;
+        int depth = -1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--divide":
+                    divide = true;
+                    break;
+                case "--verify":
+                    verify = true;
+                    break;
+                case "--human":
+                    side = Position.HUMAN;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    depth = Integer.parseInt(args[i]);
+            }
+        }
+
+        Perft perft = new Perft(threads);
+        if (verify) {
+            boolean passed = perft.verify(Position.CPUAI, CPUAI_REFERENCE)
+                    & perft.verify(Position.HUMAN, HUMAN_REFERENCE);
+            System.exit(passed ? 0 : 1);
+        }
+        if (depth < 0) {
+            System.err.println("Usage: Perft [--divide] [--human] [--threads N] depth | Perft --verify [--threads N]");
+            System.exit(2);
+        }
+
+        Position position = new Position(Game.initialBoard(), side);
+        long start = System.nanoTime();
+        long nodes = divide ? perft.divide(position, depth) : perft.count(position, depth);
+        report(depth, nodes, System.nanoTime() - start);
+    }
+
+    private boolean verify(int side, long[] reference) throws Exception {
+        boolean passed = true;
+        for (int depth = 1; depth <= reference.length; depth++) {
+            long start = System.nanoTime();
+            long nodes = count(new Position(Game.initialBoard(), side), depth);
+            report(depth, nodes, System.nanoTime() - start);
+
+            if (nodes != reference[depth - 1]) {
+                System.out.println("MISMATCH for " + (side == Position.CPUAI ? "computer" : "human")
+                        + " to move: expected " + reference[depth - 1]);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private static void report(int depth, long nodes, long nanos) {
+        long millis = nanos / 1_000_000L;
+        System.out.printf("perft %d: %d nodes (%d ms, %d nodes/s)\n",
+                depth, nodes, millis, nanos > 0 ? nodes * 1_000_000_000L / nanos : 0);
+    }
+
+    /** Prints and sums the leaves under each root move. */
+    long divide(Position position, int depth) throws Exception {
+        int[] moves = new int[Position.MAX_MOVES];
+        int count = position.generateMoves(position.sideToMove(), moves);
+        long[] counts = countMoves(position, moves, count, depth);
+
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            System.out.println(Position.toNotation(moves[i]) + ": " + counts[i]);
+            nodes += counts[i];
+        }
+        return nodes;
+    }
+
+    long count(Position position, int depth) throws Exception {
+        if (depth == 0) return 1;
+
+        int[] moves = new int[Position.MAX_MOVES];
+        int count = position.generateMoves(position.sideToMove(), moves);
+        long nodes = 0;
+        for (long moveNodes : countMoves(position, moves, count, depth)) {
+            nodes += moveNodes;
+        }
+        return nodes;
+    }
+
+    /** Leaves under each root move, spread over the threads a root move at a time. */
+    private long[] countMoves(Position position, int[] moves, int count, int depth) throws Exception {
+        long[] counts = new long[count];
+        if (depth == 0) return counts;
+
+        if (threads <= 1) {
+            int[][] moveStack = new int[depth][Position.MAX_MOVES];
+            for (int i = 0; i < count; i++) {
+                counts[i] = countMove(position, moves[i], depth, moveStack);
+            }
+            return counts;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                Position copy = position.copy();
+                futures.add(executor.submit(() -> countMove(copy, move, depth, new int[depth][Position.MAX_MOVES])));
+            }
+            for (int i = 0; i < count; i++) {
+                counts[i] = futures.get(i).get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return counts;
+    }
+
+    private static long countMove(Position position, int move, int depth, int[][] moveStack) {
+        position.makeMove(move);
+        long nodes = position.isGameOver() ? (depth == 1 ? 1 : 0) : count(position, depth - 1, moveStack);
+        position.unmakeMove();
+        return nodes;
+    }
+
+    private static long count(Position position, int depth, int[][] moveStack) {
+        if (depth == 0) return 1;
+
+        int side = position.sideToMove();
+        if (depth == 1) {
+            return position.countMoves(side); // Every move is a leaf, no need to make them
+        }
+
+        int[] moves = moveStack[depth - 1];
+        int count = position.generateMoves(side, moves);
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            nodes += countMove(position, moves[i], depth, moveStack);
+        }
+        return nodes;
+    }
+}
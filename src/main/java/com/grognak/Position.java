@@ -0,0 +1,709 @@
+package com.grognak;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Bitboard representation of the 7x8 board.
+ *
+ * Squares are numbered {@code y * 7 + x}, so square 0 is A8 (the computer's
+ * back-left corner) and square 55 is G1. Every piece code from {@link Game}
+ * (11, 12, 15, 16, 19, 21, ...) owns one {@code long} mask, and a mailbox of
+ * the same codes is kept alongside so attacks can find their victim directly.
+ *
+ * The Zobrist key and the material score are kept up to date by
+ * {@link #put} and {@link #remove}, so moves, attacks, demotions and their
+ * undo all hash and evaluate in O(1).
+ *
+ * The rules don't change when the board is turned half way round and the
+ * sides swap colors, so every position has a color flip that plays exactly
+ * like it, from the side to move's point of view. The key of the flip is
+ * kept alongside the position's own, and {@link #canonicalHash()} picks the
+ * same one of the two for both, so tables can share work between them.
+ */
+class Position {
+    static final int WIDTH = 7;
+    static final int HEIGHT = 8;
+    static final int SQUARES = WIDTH * HEIGHT;
+    static final int MAX_MOVES = 256;
+    static final int MAX_PLY = 160; // Full-width plies plus quiescence plies
+
+    static final int CPUAI = 0;
+    static final int HUMAN = 1;
+
+    static final int MINI_NINJA = 1;
+    static final int NORM_NINJA = 2;
+    static final int MINI_SAMURAI = 5;
+    static final int NORM_SAMURAI = 6;
+    static final int KING = 9;
+
+    static final long BOARD = (1L << SQUARES) - 1;
+    static final long FILE_A;
+    static final long FILE_G;
+    static {
+        long fileA = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            fileA |= 1L << (y * WIDTH);
+        }
+        FILE_A = fileA;
+        FILE_G = fileA << (WIDTH - 1);
+    }
+
+    /* Directions, indexed by side. The computer considers down (+y) as "forward". */
+    private static final int[] FORWARD = { WIDTH, -WIDTH };
+    private static final int[] FORWARD_LEFT = { WIDTH - 1, -WIDTH - 1 };
+    private static final int[] FORWARD_RIGHT = { WIDTH + 1, -WIDTH + 1 };
+    private static final int[] BACK_LEFT = { -WIDTH - 1, WIDTH - 1 };
+    private static final int[] BACK_RIGHT = { -WIDTH + 1, WIDTH + 1 };
+    private static final int LEFT = -1;
+    private static final int RIGHT = 1;
+
+    /* Letters for the piece types in text positions: lower case for the computer, upper case for the human */
+    private static final String PIECE_LETTERS = "bn..rs..k"; // Mini ninja (Bishop), ninja, mini samurai (Rook), samurai, King
+
+    private static final int ALL_MOVES = 0;
+    private static final int ATTACK_MOVES = 1;
+    private static final int QUIET_MOVES = 2;
+
+    // Anything stepping left must not land on file G, anything stepping right must not land on file A
+    private static final long NOT_FILE_A = BOARD & ~FILE_A;
+    private static final long NOT_FILE_G = BOARD & ~FILE_G;
+
+    /* Fixed so a key means the same position in every run and every process, which the AnalysisCache file relies on */
+    static final long ZOBRIST_SEED = 0x4B616D692D73616DL;
+
+    private static final int[] hashReference;
+    private static final long[][] zobrist;
+    private static final long zobristHuman; // XORed in while the human is to move
+    static {
+        hashReference = new int[30];
+        hashReference[00] = 0;
+        hashReference[11] = 1;
+        hashReference[12] = 2;
+        hashReference[15] = 3;
+        hashReference[16] = 4;
+        hashReference[19] = 5;
+        hashReference[21] = 6;
+        hashReference[22] = 7;
+        hashReference[25] = 8;
+        hashReference[26] = 9;
+        hashReference[29] = 10;
+
+        Random random = new Random(ZOBRIST_SEED);
+        zobrist = new long[SQUARES][11];
+        for (int square = 0; square < SQUARES; square++) {
+            zobrist[square][0] = 0;
+            for (int p = 1; p <= 10; p++) {
+                zobrist[square][p] = random.nextLong();
+            }
+        }
+        zobristHuman = random.nextLong();
+    }
+
+    /* What every piece code is worth on every square, from the EvalWeights, the same for both sides once the board is turned round */
+    private static final int KING_VALUE = 1000000;
+    private static final int[][] pieceSquare;
+    static {
+        pieceSquare = new int[30][SQUARES];
+        for (int side = CPUAI; side <= HUMAN; side++) {
+            for (int type : EvalWeights.TYPES) {
+                int piece = pieceCode(side, type);
+                for (int square = 0; square < SQUARES; square++) {
+                    pieceSquare[piece][square] = EvalWeights.DEFAULT.value(piece, square);
+                }
+            }
+            // Both Kings stand still on their own back rank, so they are worth the same
+            Arrays.fill(pieceSquare[pieceCode(side, KING)], KING_VALUE);
+        }
+    }
+
+
+    private final long[] pieces = new long[30];
+    private final long[] occupied = new long[2];
+    private final int[] squares = new int[SQUARES];
+    private int sideToMove;
+    private long hash;
+    private long flipHash = zobristHuman; // The key of the color flip, which has the other side to move
+    private final int[] material = new int[2];
+    private boolean isGameOver;
+
+    /* Undo stack for makeMove/unmakeMove, preallocated so the search never allocates */
+    private final int[] undoMove = new int[MAX_PLY];
+    private final int[] undoTarget = new int[MAX_PLY];
+    private final int[] undoVictim = new int[MAX_PLY];
+    private final boolean[] undoGameOver = new boolean[MAX_PLY];
+    private int ply;
+
+    Position(int[][] board, int sideToMove) {
+        setSideToMove(sideToMove);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int piece = board[y][x];
+                if (piece != 00) {
+                    put(y * WIDTH + x, piece);
+                }
+            }
+        }
+    }
+
+    private Position() {
+    }
+
+    private Position(Snapshot snapshot) {
+        setSideToMove(snapshot.sideToMove);
+        for (int square = 0; square < SQUARES; square++) {
+            if (snapshot.squares[square] != 00) {
+                put(square, snapshot.squares[square]);
+            }
+        }
+        isGameOver = snapshot.isGameOver;
+    }
+
+    /**
+     * The board as it stands, without the move history: immutable, so it can
+     * be handed to another thread while this position carries on.
+     */
+    Snapshot snapshot() {
+        return new Snapshot(squares.clone(), sideToMove, isGameOver, hash);
+    }
+
+    /** An immutable copy of a position; {@link #toPosition()} gives a mutable one back to search on. */
+    static final class Snapshot {
+        private final int[] squares;
+        private final int sideToMove;
+        private final boolean isGameOver;
+        private final long hash;
+
+        private Snapshot(int[] squares, int sideToMove, boolean isGameOver, long hash) {
+            this.squares = squares;
+            this.sideToMove = sideToMove;
+            this.isGameOver = isGameOver;
+            this.hash = hash;
+        }
+
+        Position toPosition() {
+            return new Position(this);
+        }
+
+        int sideToMove() {
+            return sideToMove;
+        }
+
+        long hash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return toPosition().toText();
+        }
+    }
+
+    Position copy() {
+        Position copy = new Position();
+        System.arraycopy(pieces, 0, copy.pieces, 0, pieces.length);
+        System.arraycopy(occupied, 0, copy.occupied, 0, occupied.length);
+        System.arraycopy(squares, 0, copy.squares, 0, squares.length);
+        copy.sideToMove = sideToMove;
+        copy.hash = hash;
+        copy.flipHash = flipHash;
+        System.arraycopy(material, 0, copy.material, 0, material.length);
+        copy.isGameOver = isGameOver;
+        System.arraycopy(undoMove, 0, copy.undoMove, 0, ply);
+        System.arraycopy(undoTarget, 0, copy.undoTarget, 0, ply);
+        System.arraycopy(undoVictim, 0, copy.undoVictim, 0, ply);
+        System.arraycopy(undoGameOver, 0, copy.undoGameOver, 0, ply);
+        copy.ply = ply;
+        return copy;
+    }
+
+    int pieceAt(int y, int x) {
+        return squares[y * WIDTH + x];
+    }
+
+    int pieceAt(int square) {
+        return squares[square];
+    }
+
+    /** Every square holding {@code piece}. */
+    long pieces(int piece) {
+        return pieces[piece];
+    }
+
+    boolean isGameOver() {
+        return isGameOver;
+    }
+
+    int sideToMove() {
+        return sideToMove;
+    }
+
+    void setSideToMove(int side) {
+        if (side != sideToMove) {
+            switchSide();
+        }
+    }
+
+    long hash() {
+        return hash;
+    }
+
+    /**
+     * The key under which this position and its color flip are both
+     * stored. Moves found in a table under it are for the flip when
+     * {@link #isCanonical()} is false, and need {@link #flipMove} first;
+     * scores are from the side to move's point of view, so they need nothing.
+     */
+    long canonicalHash() {
+        return hash <= flipHash ? hash : flipHash;
+    }
+
+    /** Whether {@link #canonicalHash()} is this position's own key, rather than its color flip's. */
+    boolean isCanonical() {
+        return hash <= flipHash;
+    }
+
+    /** What every piece {@code side} has left is worth where it stands, by the {@link EvalWeights}. */
+    int material(int side) {
+        return material[side];
+    }
+
+    /** How many moves deep into makeMove the search currently is. */
+    int ply() {
+        return ply;
+    }
+
+    /**
+     * @return the enemy piece {@code move} would attack, or 00 for a quiet move
+     */
+    int attackVictim(int move) {
+        int side = sideOf(squares[from(move)]);
+        int target = to(move) + FORWARD[side];
+
+        if (target < 0 || target >= SQUARES) return 00;
+
+        int victim = squares[target];
+        return (victim != 00 && sideOf(victim) != side) ? victim : 00;
+    }
+
+    /** The square a piece lands on when the board is turned half way round. */
+    static int flipSquare(int square) {
+        return SQUARES - 1 - square;
+    }
+
+    /** The same piece of the other side. */
+    static int flipPiece(int piece) {
+        return piece == 00 ? 00 : (3 - piece / 10) * 10 + piece % 10;
+    }
+
+    /** {@code move} as played on the color flip of its position. */
+    static int flipMove(int move) {
+        return move == 0 ? 0 : move(flipSquare(from(move)), flipSquare(to(move)));
+    }
+
+    static int sideOf(int piece) {
+        return piece / 10 - 1;
+    }
+
+    static int pieceCode(int side, int type) {
+        return (side + 1) * 10 + type;
+    }
+
+    /* Moves are packed as from | to << 6. */
+    static int move(int from, int to) {
+        return from | to << 6;
+    }
+
+    static int from(int move) {
+        return move & 63;
+    }
+
+    static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    static String toNotation(int move) {
+        int from = from(move);
+        int to = to(move);
+        return new String(new char[] {
+                (char)('A' + from % WIDTH),
+                (char)('8' - from / WIDTH),
+                (char)('A' + to % WIDTH),
+                (char)('8' - to / WIDTH),
+        });
+    }
+
+    static int fromNotation(String move) {
+        char[] chars = move.toCharArray(); // Algebraic notation
+        int x1 = chars[0] - 'A';
+        int y1 = 8 - (chars[1] - '0');
+        int x2 = chars[2] - 'A';
+        int y2 = 8 - (chars[3] - '0');
+        return move(y1 * WIDTH + x1, y2 * WIDTH + x2);
+    }
+
+    /**
+     * Reads a position from text: the ranks from 8 down to 1 separated by
+     * '/', a piece letter ({@code b n r s k}, upper case for the human) or a
+     * count of empty squares for each square, then {@code c} or {@code h}
+     * for the side to move. The starting position is
+     * {@code 3k3/nnn1sss/rrr1bbb/7/7/BBB1RRR/SSS1NNN/3K3 c}.
+     *
+     * @throws IllegalArgumentException if the text isn't a position
+     */
+    static Position fromText(String text) {
+        String[] fields = text.trim().split("\\s+");
+        String[] ranks = fields[0].split("/");
+        if (fields.length != 2 || ranks.length != HEIGHT) {
+            throw new IllegalArgumentException("Not a position: " + text);
+        }
+
+        int[][] board = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            int x = 0;
+            for (char c : ranks[y].toCharArray()) {
+                if (c >= '1' && c <= '7') {
+                    x += c - '0';
+                    continue;
+                }
+                int type = PIECE_LETTERS.indexOf(Character.toLowerCase(c)) + 1;
+                if (type <= 0 || c == '.' || x >= WIDTH) {
+                    throw new IllegalArgumentException("Not a position: " + text);
+                }
+                board[y][x++] = pieceCode(Character.isUpperCase(c) ? HUMAN : CPUAI, type);
+            }
+            if (x != WIDTH) {
+                throw new IllegalArgumentException("Not a position: " + text);
+            }
+        }
+
+        switch (fields[1]) {
+            case "c":
+                return new Position(board, CPUAI);
+            case "h":
+                return new Position(board, HUMAN);
+            default:
+                throw new IllegalArgumentException("Not a position: " + text);
+        }
+    }
+
+    /** The position as text, the way {@link #fromText(String)} reads it. */
+    String toText() {
+        StringBuilder text = new StringBuilder();
+        for (int y = 0; y < HEIGHT; y++) {
+            if (y > 0) text.append('/');
+            int empty = 0;
+            for (int x = 0; x < WIDTH; x++) {
+                int piece = squares[y * WIDTH + x];
+                if (piece == 00) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) text.append(empty);
+                empty = 0;
+                char letter = PIECE_LETTERS.charAt(piece % 10 - 1);
+                text.append(sideOf(piece) == HUMAN ? Character.toUpperCase(letter) : letter);
+            }
+            if (empty > 0) text.append(empty);
+        }
+        return text.append(sideToMove == CPUAI ? " c" : " h").toString();
+    }
+
+    /**
+     * Moves a piece and lets it attack the square in front of its destination.
+     * This is for moves that are actually played; the search uses
+     * {@link #makeMove(int)} so it can take them back.
+     *
+     * @return whether an attack was performed
+     */
+    boolean performMove(int move) {
+        int from = from(move);
+        int to = to(move);
+        int piece = squares[from];
+
+        remove(from, piece);
+        put(to, piece);
+        switchSide();
+
+        return performAttack(to) >= 0;
+    }
+
+    /**
+     * Same as {@link #performMove(int)}, but records what happened on the undo
+     * stack so {@link #unmakeMove()} can restore the position in place.
+     */
+    boolean makeMove(int move) {
+        int from = from(move);
+        int to = to(move);
+        int piece = squares[from];
+
+        undoMove[ply] = move;
+        undoGameOver[ply] = isGameOver;
+
+        remove(from, piece);
+        put(to, piece);
+        switchSide();
+
+        int target = attackTarget(to);
+        undoTarget[ply] = target;
+        undoVictim[ply] = target >= 0 ? squares[target] : 00;
+        ply++;
+
+        if (target < 0) return false;
+        attack(target);
+        return true;
+    }
+
+    void unmakeMove() {
+        ply--;
+        int move = undoMove[ply];
+        int from = from(move);
+        int to = to(move);
+
+        int target = undoTarget[ply];
+        if (target >= 0) {
+            int piece = squares[target];
+            if (piece != 00) {
+                remove(target, piece); // A demoted piece
+            }
+            put(target, undoVictim[ply]);
+        }
+
+        int piece = squares[to];
+        remove(to, piece);
+        put(from, piece);
+        switchSide();
+
+        isGameOver = undoGameOver[ply];
+    }
+
+    /**
+     * Passes the turn without moving, for null-move pruning. There is no pass
+     * in the real game, so this is only ever undone by {@link #unmakeNullMove()}.
+     */
+    void makeNullMove() {
+        undoMove[ply] = 0;
+        undoTarget[ply] = -1;
+        undoGameOver[ply] = isGameOver;
+        switchSide();
+        ply++;
+    }
+
+    void unmakeNullMove() {
+        ply--;
+        switchSide();
+    }
+
+    /**
+     * @return the enemy square the piece on {@code square} would attack, or -1
+     */
+    private int attackTarget(int square) {
+        int piece = squares[square];
+        int side = sideOf(piece);
+        int target = square + FORWARD[side];
+
+        if (target < 0 || target >= SQUARES) return -1; // Attack would land off the board
+
+        int victim = squares[target];
+        if (victim == 00 || sideOf(victim) == side) return -1; // Not a valid target
+
+        return target;
+    }
+
+    /**
+     * @return the attacked square, or -1 if there was nothing to attack
+     */
+    private int performAttack(int square) {
+        int target = attackTarget(square);
+        if (target >= 0) {
+            attack(target);
+        }
+        return target;
+    }
+
+    private void attack(int target) {
+        // If we're this far, we have a valid target that we are going to attack.
+        int victim = squares[target];
+        switch (victim % 10) {
+            case MINI_NINJA:
+            case MINI_SAMURAI:
+                remove(target, victim); // The mini pieces are killed
+                break;
+            case NORM_NINJA:
+            case NORM_SAMURAI:
+                remove(target, victim);
+                put(target, victim - 1); // Demote the piece
+                break;
+            case KING:
+                remove(target, victim); // The King is killed - game over
+                isGameOver = true;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void switchSide() {
+        sideToMove ^= 1;
+        hash ^= zobristHuman;
+        flipHash ^= zobristHuman;
+    }
+
+    private void put(int square, int piece) {
+        long bit = 1L << square;
+        squares[square] = piece;
+        pieces[piece] |= bit;
+        occupied[sideOf(piece)] |= bit;
+        hash ^= zobrist[square][hashReference[piece]];
+        flipHash ^= zobrist[flipSquare(square)][hashReference[flipPiece(piece)]];
+        material[sideOf(piece)] += pieceSquare[piece][square];
+    }
+
+    private void remove(int square, int piece) {
+        long bit = 1L << square;
+        squares[square] = 00;
+        pieces[piece] &= ~bit;
+        occupied[sideOf(piece)] &= ~bit;
+        hash ^= zobrist[square][hashReference[piece]];
+        flipHash ^= zobrist[flipSquare(square)][hashReference[flipPiece(piece)]];
+        material[sideOf(piece)] -= pieceSquare[piece][square];
+    }
+
+    /**
+     * Writes every valid move for {@code side} into {@code moves}.
+     *
+     * @return the number of moves written
+     */
+    int generateMoves(int side, int[] moves) {
+        return generate(side, moves, ALL_MOVES);
+    }
+
+    /**
+     * Writes only the moves that end with an attack, i.e. the moves whose
+     * destination has an enemy piece directly in front of it.
+     */
+    int generateAttacks(int side, int[] moves) {
+        return generate(side, moves, ATTACK_MOVES);
+    }
+
+    /** Writes only the moves that don't attack anything. */
+    int generateQuiets(int side, int[] moves) {
+        return generate(side, moves, QUIET_MOVES);
+    }
+
+    /** Counts the valid moves for {@code side} without writing them anywhere. */
+    int countMoves(int side) {
+        return generate(side, null, ALL_MOVES);
+    }
+
+    private int generate(int side, int[] moves, int type) {
+        long empty = BOARD & ~(occupied[CPUAI] | occupied[HUMAN]);
+        // Landing on one of these squares puts an enemy piece directly in front of us
+        long attacks = shift(occupied[side ^ 1], -FORWARD[side], BOARD) & empty;
+
+        long forwardTargets = type == ATTACK_MOVES ? attacks : type == QUIET_MOVES ? empty & ~attacks : empty;
+
+        long miniNinjas = pieces[pieceCode(side, MINI_NINJA)];
+        long normNinjas = pieces[pieceCode(side, NORM_NINJA)];
+        long miniSamurai = pieces[pieceCode(side, MINI_SAMURAI)];
+        long normSamurai = pieces[pieceCode(side, NORM_SAMURAI)];
+
+        int count = 0;
+        count = slide(moves, count, miniNinjas, normNinjas, FORWARD_LEFT[side], NOT_FILE_G, empty, forwardTargets);
+        count = slide(moves, count, miniNinjas, normNinjas, FORWARD_RIGHT[side], NOT_FILE_A, empty, forwardTargets);
+        count = slide(moves, count, miniSamurai, normSamurai, FORWARD[side], BOARD, empty, forwardTargets);
+        if (type != QUIET_MOVES && attacks != 0) {
+            // Moving backwards or sideways is only allowed as an attack
+            count = slide(moves, count, miniNinjas, normNinjas, BACK_LEFT[side], NOT_FILE_G, empty, attacks);
+            count = slide(moves, count, miniNinjas, normNinjas, BACK_RIGHT[side], NOT_FILE_A, empty, attacks);
+            count = slide(moves, count, miniSamurai, normSamurai, LEFT, NOT_FILE_G, empty, attacks);
+            count = slide(moves, count, miniSamurai, normSamurai, RIGHT, NOT_FILE_A, empty, attacks);
+        }
+        // The King has no possible moves.
+
+        return count;
+    }
+
+    /**
+     * Checks a move that didn't come from the generator (e.g. a transposition
+     * table move, which may belong to a colliding position).
+     */
+    boolean isValidMove(int side, int move) {
+        int from = from(move);
+        int to = to(move);
+        int piece = squares[from];
+        if (piece == 00 || sideOf(piece) != side || squares[to] != 00 || from == to) return false;
+
+        int dy = to / WIDTH - from / WIDTH;
+        int dx = to % WIDTH - from % WIDTH;
+        int forwardY = FORWARD[side] / WIDTH;
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+        boolean isForward;
+
+        switch (piece % 10) {
+            case MINI_NINJA:
+            case NORM_NINJA:
+                if (Math.abs(dx) != Math.abs(dy)) return false;
+                isForward = dy == forwardY * steps;
+                break;
+            case MINI_SAMURAI:
+            case NORM_SAMURAI:
+                if (dx != 0 && dy != 0) return false;
+                if (dy != 0 && dy != forwardY * steps) return false; // Samurai never move backwards
+                isForward = dy != 0;
+                break;
+            default:
+                return false; // The King has no possible moves.
+        }
+
+        int type = piece % 10;
+        if ((type == MINI_NINJA || type == MINI_SAMURAI) && steps != 1) return false;
+
+        int step = Integer.signum(dy) * WIDTH + Integer.signum(dx);
+        for (int square = from + step; square != to; square += step) {
+            if (squares[square] != 00) return false;
+        }
+
+        if (isForward) return true;
+
+        int target = to + FORWARD[side];
+        if (target < 0 || target >= SQUARES) return false;
+        int victim = squares[target];
+        return victim != 00 && sideOf(victim) != side;
+    }
+
+    /**
+     * Slides mini pieces one step and normal pieces any number of steps along
+     * {@code direction} through empty squares, emitting the squares that are
+     * also in {@code targets}.
+     */
+    private static int slide(int[] moves, int count, long minis, long norms, int direction, long wrap, long empty, long targets) {
+        long reach = shift(minis, direction, wrap) & empty;
+        count = emit(moves, count, reach & targets, direction);
+
+        reach = norms;
+        for (int step = 1; ; step++) {
+            reach = shift(reach, direction, wrap) & empty;
+            if (reach == 0) break;
+            count = emit(moves, count, reach & targets, direction * step);
+        }
+
+        return count;
+    }
+
+    private static int emit(int[] moves, int count, long destinations, int offset) {
+        if (moves == null) {
+            return count + Long.bitCount(destinations); // Only counting
+        }
+        while (destinations != 0) {
+            int to = Long.numberOfTrailingZeros(destinations);
+            destinations &= destinations - 1;
+            moves[count++] = move(to - offset, to);
+        }
+        return count;
+    }
+
+    private static long shift(long bits, int direction, long wrap) {
+        return (direction > 0 ? bits << direction : bits >>> -direction) & wrap;
+    }
+}
@@ -0,0 +1,303 @@
+package com.grognak;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless, line-based engine protocol over stdin/stdout, for match runners
+ * and services. There is no board rendering, no warm-up and no prompting:
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.Protocol
+ * </pre>
+ *
+ * Commands, one per line:
+ *
+ * <pre>
+ *   isready                                  answered with readyok
+ *   newgame                                  forget everything earlier searches learned
+ *   position startpos [c|h] [moves M ...]    the starting position, computer (c) or human (h) to move
+ *   position TEXT [moves M ...]              a position as written by {@link Position#toText()}
+ *   go [depth N] [nodes N] [movetime MS] [infinite]
+ *   stop                                     end the search, it still answers with bestmove
+ *   setoption hash|threads VALUE             transposition table MB, search threads
+ *   show                                     answered with the current position as text
+ *   quit
+ * </pre>
+ *
+ * Moves are written like {@code A6A5}. A {@code go} without limits searches
+ * for the usual move time. While it runs, every finished iteration is reported
+ * as
+ *
+ * <pre>
+ *   info depth D seldepth D score S nodes N nps N time MS pv M ...
+ * </pre>
+ *
+ * with the score from the side to move's point of view, and the search ends
+ * with {@code bestmove M}, or {@code bestmove none} if there is no move.
+ * The commands that change the position or the engine wait for a running
+ * search to answer first, so commands can be sent ahead; only a search with
+ * no limits at all, which would never answer, is stopped as {@code stop}
+ * would stop it. {@code quit} stops any search. Anything that can't be
+ * understood is answered with {@code error ...}.
+ *
+ * For analysis, {@code -Dkami.cache=FILE} keeps deep results in an
+ * {@link AnalysisCache} that outlives the process ({@code -Dkami.cacheMb}
+ * sizes a new file, 256 MB by default). A position found there is answered
+ * at once, with a single {@code info} line at the depth it was searched to.
+ */
+public class Protocol {
+    private static final int MOVE_TIME_MS = Integer.getInteger("kami.moveTime", 5000);
+    private static final String TABLEBASE_PATH = System.getProperty("kami.tablebase");
+    private static final String CACHE_PATH = System.getProperty("kami.cache"); // Off unless a file is given
+    private static final int CACHE_MB = Integer.getInteger("kami.cacheMb", 256);
+
+    private final PrintStream out;
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("protocol-search").setDaemon(true).build());
+    private int hashMb = Integer.getInteger("kami.hash", 64);
+    private int threads = Integer.getInteger("kami.threads", Runtime.getRuntime().availableProcessors());
+    private Tablebase tablebase;
+    private AnalysisCache analysisCache;
+    private Searcher searcher;
+    private Position position = new Position(Game.initialBoard(), Position.CPUAI);
+    private Future<?> search;
+    private volatile TimeManager timeManager;
+    private boolean unlimited; // The running search only ends when it is stopped
+
+    Protocol(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Protocol protocol = new Protocol(System.out);
+        protocol.run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    void run(BufferedReader in) throws IOException {
+        if (TABLEBASE_PATH != null) {
+            try {
+                tablebase = Tablebase.open(new File(TABLEBASE_PATH));
+            } catch (IOException e) {
+                out.println("error tablebase: " + e.getMessage());
+            }
+        }
+        if (CACHE_PATH != null) {
+            try {
+                analysisCache = AnalysisCache.open(new File(CACHE_PATH), CACHE_MB);
+            } catch (IOException e) {
+                out.println("error cache: " + e.getMessage());
+            }
+        }
+        searcher = new Searcher(hashMb, threads, tablebase);
+        searcher.useAnalysisCache(analysisCache);
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+                if (words[0].equals("quit")) break;
+                try {
+                    handle(words);
+                } catch (IllegalArgumentException e) {
+                    out.println("error " + e.getMessage());
+                }
+            }
+        } finally {
+            stop();
+            awaitSearch();
+            searcher.shutdown();
+            searchThread.shutdown();
+        }
+    }
+
+    private void handle(String[] words) {
+        switch (words[0]) {
+            case "":
+                break;
+            case "isready":
+                out.println("readyok");
+                break;
+            case "newgame":
+                endSearch();
+                searcher.newGame();
+                break;
+            case "position":
+                endSearch();
+                position = parsePosition(words);
+                break;
+            case "go":
+                endSearch();
+                go(words);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "setoption":
+                endSearch();
+                setOption(words);
+                break;
+            case "show":
+                out.println("position " + position.toText());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown command: " + words[0]);
+        }
+    }
+
+    private static Position parsePosition(String[] words) {
+        if (words.length < 2) throw new IllegalArgumentException("position needs a position");
+
+        int next;
+        Position position;
+        if (words[1].equals("startpos")) {
+            next = 2;
+            int side = Position.CPUAI;
+            if (words.length > next && (words[next].equals("c") || words[next].equals("h"))) {
+                side = words[next++].equals("c") ? Position.CPUAI : Position.HUMAN;
+            }
+            position = new Position(Game.initialBoard(), side);
+        } else {
+            if (words.length < 3) throw new IllegalArgumentException("position needs a side to move");
+            position = Position.fromText(words[1] + " " + words[2]);
+            next = 3;
+        }
+
+        if (words.length > next) {
+            if (!words[next].equals("moves")) throw new IllegalArgumentException("unexpected: " + words[next]);
+            for (int i = next + 1; i < words.length; i++) {
+                int move = parseMove(words[i]);
+                if (position.isGameOver() || !position.isValidMove(position.sideToMove(), move)) {
+                    throw new IllegalArgumentException("invalid move: " + words[i]);
+                }
+                position.performMove(move);
+            }
+        }
+        return position;
+    }
+
+    private static int parseMove(String word) {
+        String move = word.toUpperCase();
+        if (!move.matches("[A-G][1-8][A-G][1-8]")) throw new IllegalArgumentException("not a move: " + word);
+        return Position.fromNotation(move);
+    }
+
+    private void go(String[] words) {
+        long moveTime = 0;
+        long nodes = 0;
+        int depth = SearchWorker.MAX_DEPTH;
+        boolean limited = false;
+        for (int i = 1; i < words.length; i++) {
+            switch (words[i]) {
+                case "infinite":
+                    limited = true;
+                    break;
+                case "depth":
+                    depth = Integer.parseInt(value(words, ++i));
+                    limited = true;
+                    break;
+                case "nodes":
+                    nodes = Long.parseLong(value(words, ++i));
+                    limited = true;
+                    break;
+                case "movetime":
+                    moveTime = Long.parseLong(value(words, ++i));
+                    limited = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown go option: " + words[i]);
+            }
+        }
+        SearchLimits limits = new SearchLimits(depth, nodes, limited ? moveTime : MOVE_TIME_MS);
+        TimeManager timeManager = limits.newTimeManager();
+        this.timeManager = timeManager;
+        unlimited = limits.depth == SearchWorker.MAX_DEPTH && limits.nodes == 0 && limits.millis == 0;
+
+        Position root = position.copy();
+        search = searchThread.submit(() -> {
+            int move = 0;
+            if (!root.isGameOver()) {
+                move = searcher.search(root, timeManager, limits.depth, iteration -> {
+                    int[] line = new int[Math.max(iteration.depth, 1)]; // Deeper table moves may be left from older searches
+                    out.println(info(iteration, line, searcher.principalVariation(root, iteration.move, line)));
+                });
+            }
+            out.println("bestmove " + (move != 0 ? Position.toNotation(move) : "none"));
+        });
+    }
+
+    private static String value(String[] words, int i) {
+        if (i >= words.length) throw new IllegalArgumentException("missing value for " + words[i - 1]);
+        return words[i];
+    }
+
+    private static String info(SearchReport.Iteration iteration, int[] line, int length) {
+        StringBuilder info = new StringBuilder()
+                .append("info depth ").append(iteration.depth)
+                .append(" seldepth ").append(iteration.stats.selDepth)
+                .append(" score ").append(iteration.score)
+                .append(" nodes ").append(iteration.nodes)
+                .append(" nps ").append(iteration.nodesPerSecond())
+                .append(" time ").append(iteration.millis)
+                .append(" pv");
+        for (int i = 0; i < length; i++) {
+            info.append(' ').append(Position.toNotation(line[i]));
+        }
+        return info.toString();
+    }
+
+    private void setOption(String[] words) {
+        if (words.length != 3) throw new IllegalArgumentException("setoption needs a name and a value");
+        int value = Integer.parseInt(words[2]);
+        switch (words[1]) {
+            case "hash":
+                hashMb = value;
+                break;
+            case "threads":
+                threads = value;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option: " + words[1]);
+        }
+        searcher.shutdown();
+        searcher = new Searcher(hashMb, threads, tablebase);
+        searcher.useAnalysisCache(analysisCache);
+    }
+
+    private void stop() {
+        TimeManager timeManager = this.timeManager;
+        if (timeManager != null) timeManager.stop();
+    }
+
+    /**
+     * Waits for the running search, if any, to answer with bestmove, after
+     * stopping it if it has no limits: one with limits answers with the move
+     * it searched for, never a move cut short by the next command.
+     */
+    private void endSearch() {
+        if (unlimited) stop();
+        awaitSearch();
+    }
+
+    private void awaitSearch() {
+        if (search == null) return;
+        try {
+            search.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            out.println("error " + e.getCause());
+        } finally {
+            search = null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.grognak;
+
+/**
+ * How far one search may go: a depth, a node count and a move time, any of
+ * which can be left unlimited. The search stops at whichever comes first,
+ * and with none of them set it runs until it is stopped.
+ */
+final class SearchLimits {
+    final int depth;
+    final long nodes;
+    final long millis;
+
+    /**
+     * @param depth  deepest iteration to search, at most {@link SearchWorker#MAX_DEPTH}
+     * @param nodes  node limit, or 0 for none
+     * @param millis move time, or 0 for none
+     */
+    SearchLimits(int depth, long nodes, long millis) {
+        if (depth < 1 || nodes < 0 || millis < 0) {
+            throw new IllegalArgumentException("invalid limits: depth " + depth + ", nodes " + nodes + ", time " + millis);
+        }
+        this.depth = Math.min(depth, SearchWorker.MAX_DEPTH);
+        this.nodes = nodes;
+        this.millis = millis;
+    }
+
+    static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, 0, 0);
+    }
+
+    static SearchLimits nodes(long nodes) {
+        return new SearchLimits(SearchWorker.MAX_DEPTH, nodes, 0);
+    }
+
+    static SearchLimits millis(long millis) {
+        return new SearchLimits(SearchWorker.MAX_DEPTH, 0, millis);
+    }
+
+    /** These limits, tightened wherever {@code cap} is stricter. */
+    SearchLimits within(SearchLimits cap) {
+        return new SearchLimits(Math.min(depth, cap.depth), tighter(nodes, cap.nodes), tighter(millis, cap.millis));
+    }
+
+    private static long tighter(long limit, long cap) {
+        if (limit == 0) return cap;
+        if (cap == 0) return limit;
+        return Math.min(limit, cap);
+    }
+
+    /** A fresh time manager enforcing the node and time limits, starting now. The depth is up to the caller. */
+    TimeManager newTimeManager() {
+        TimeManager timeManager = millis > 0 ? new TimeManager(millis) : TimeManager.infinite();
+        if (nodes > 0) timeManager.setNodeLimit(nodes);
+        return timeManager;
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + ", nodes " + (nodes > 0 ? nodes : "-") + ", time " + (millis > 0 ? millis + " ms" : "-");
+    }
+}
@@ -0,0 +1,208 @@
+package com.grognak;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What one {@link Searcher#search} did: the move and its score, every
+ * iteration of the main worker, the counters of all workers together, and
+ * what the move cost in time, allocation and garbage collection.
+ *
+ * {@link #toJson()} writes it as a single line of JSON, which is what
+ * {@code -Dkami.telemetry=FILE} appends to the file after every search.
+ */
+final class SearchReport {
+    /**
+     * One finished iteration of the main worker. The counters are the main
+     * worker's own, for the whole search so far; the node count is for all
+     * workers, the helpers' as of their last report to the time manager.
+     */
+    static final class Iteration {
+        final int depth;
+        final int move;
+        final int score;
+        final long nodes;
+        final long millis;
+        final SearchStats stats;
+
+        Iteration(int depth, int move, int score, long nodes, long millis, SearchStats stats) {
+            this.depth = depth;
+            this.move = move;
+            this.score = score;
+            this.nodes = nodes;
+            this.millis = millis;
+            this.stats = stats;
+        }
+
+        long nodesPerSecond() {
+            return millis > 0 ? nodes * 1000 / millis : nodes;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"depth\":%d,\"move\":%s,\"score\":%d,\"time\":%d,\"totalNodes\":%d,\"nps\":%d,%s}",
+                    depth, quote(move), score, millis, nodes, nodesPerSecond(), stats.toJsonMembers());
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final int threads;
+    private final List<Iteration> iterations = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private final long startGcCount;
+    private final long startGcMillis;
+    private int move;
+    private int score;
+    private boolean tablebaseMove;
+    private boolean cachedMove;
+    private long millis;
+    private final SearchStats totals = new SearchStats();
+    private long allocatedBytes = -1;
+    private long gcCount;
+    private long gcMillis;
+
+    SearchReport(int threads) {
+        this.threads = threads;
+        startGcCount = collections();
+        startGcMillis = collectionMillis();
+    }
+
+    void addIteration(Iteration iteration) {
+        iterations.add(iteration);
+    }
+
+    void tablebaseMove(int move, int score) {
+        tablebaseMove = true;
+        this.move = move;
+        this.score = score;
+    }
+
+    /** The move came from the {@link AnalysisCache}, as found by a search to {@code depth}. */
+    void cachedMove(int move, int score, int depth) {
+        cachedMove = true;
+        this.move = move;
+        this.score = score;
+        iterations.add(new Iteration(depth, move, score, 0, 0, new SearchStats()));
+    }
+
+    /** Closes the report once every worker has stopped, so their counters are safe to read. */
+    void finish(int move, int score, SearchWorker[] workers, long allocatedBytes) {
+        this.move = move;
+        this.score = score;
+        for (SearchWorker worker : workers) {
+            worker.addStatsTo(totals);
+        }
+        this.allocatedBytes = allocatedBytes;
+        millis = (System.nanoTime() - startNanos) / 1_000_000L;
+        gcCount = collections() - startGcCount;
+        gcMillis = collectionMillis() - startGcMillis;
+    }
+
+    List<Iteration> iterations() {
+        return Collections.unmodifiableList(iterations);
+    }
+
+    int move() {
+        return move;
+    }
+
+    int score() {
+        return score;
+    }
+
+    /** Depth of the last iteration that finished, or 0 for a tablebase move; for a cached move, the depth it was searched to. */
+    int depth() {
+        return iterations.isEmpty() ? 0 : iterations.get(iterations.size() - 1).depth;
+    }
+
+    long millis() {
+        return millis;
+    }
+
+    SearchStats totals() {
+        return totals;
+    }
+
+    long nodesPerSecond() {
+        return millis > 0 ? totals.nodes * 1000 / millis : totals.nodes;
+    }
+
+    /** Bytes allocated by the search threads during the search, or -1 if the JVM can't tell. */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** Collections anywhere in the process during the search. */
+    long gcCount() {
+        return gcCount;
+    }
+
+    long gcMillis() {
+        return gcMillis;
+    }
+
+    boolean isTablebaseMove() {
+        return tablebaseMove;
+    }
+
+    boolean isCachedMove() {
+        return cachedMove;
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder(String.format(Locale.ROOT,
+                "{\"move\":%s,\"score\":%d,\"depth\":%d,\"tablebase\":%b,\"cached\":%b,\"threads\":%d,\"time\":%d,\"nps\":%d,"
+                        + "\"allocatedBytes\":%d,\"gcCount\":%d,\"gcTime\":%d,%s,\"iterations\":[",
+                quote(move), score, depth(), tablebaseMove, cachedMove, threads, millis, nodesPerSecond(),
+                allocatedBytes, gcCount, gcMillis, totals.toJsonMembers()));
+        for (int i = 0; i < iterations.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(iterations.get(i).toJson());
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Total (threads=%d, depth=%d, %d ms, %d nodes/s, allocated=%s, gc=%d in %d ms, %s)",
+                threads, depth(), millis, nodesPerSecond(),
+                allocatedBytes >= 0 ? allocatedBytes / 1024 + " KB" : "n/a", gcCount, gcMillis, totals);
+    }
+
+    private static String quote(int move) {
+        return move != 0 ? "\"" + Position.toNotation(move) + "\"" : "null";
+    }
+
+    /** Bytes the calling thread has allocated so far, or -1 if the JVM can't tell. */
+    @SuppressWarnings("restriction")
+    static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,240 @@
+package com.grognak;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Many games' searches at once on a fixed number of threads, for hosting
+ * the engine as a service rather than one interactive {@link Game}:
+ *
+ * <pre>
+ *   SearchService service = new SearchService(threads, 16, 0, null, null, EngineOptions.DEFAULT, SearchLimits.millis(1000));
+ *   SearchService.Session game = service.openSession();
+ *   SearchReport report = game.search(position.snapshot(), SearchLimits.nodes(200_000)).get();
+ * </pre>
+ *
+ * Each game is a {@link Session}, whose searches run one at a time and in
+ * the order they were asked for. The threads take games in turn, so a game
+ * that queues many searches holds at most one thread and can't crowd out
+ * the others, and every search is held to the service's cap on depth, nodes
+ * and time, whatever it asked for.
+ *
+ * Each thread owns one single-threaded {@link Searcher}, so the memory for
+ * move buffers is per thread, not per game. Games either each keep a small
+ * transposition table of their own, or all share one big table, which is
+ * safe since entries are keyed by the full Zobrist hash.
+ */
+class SearchService {
+    private static final int SHARED_TABLE_AGE_INTERVAL = 64; // Searches between agings of a shared table
+
+    private final int gameHashMb;
+    private final TranspositionTable sharedTable;
+    private final SearchLimits cap;
+
+    /* Guarded by this */
+    private final ArrayDeque<Session> ready = new ArrayDeque<>();
+    private final List<Request> running = new ArrayList<>();
+    private boolean shutdown;
+    private int searchesSinceAging;
+
+    /**
+     * @param threadCount  searches that can run at once
+     * @param gameHashMb   table size for each game, when the table isn't shared
+     * @param sharedHashMb size of one table shared by all games, or 0 for a table per game
+     * @param tablebase    the endgame tablebase to consult, or null
+     * @param cache        the analysis cache all games answer from and store in, or null
+     * @param cap          the most any single search may use
+     */
+    SearchService(int threadCount, int gameHashMb, int sharedHashMb, Tablebase tablebase, AnalysisCache cache,
+                  EngineOptions options, SearchLimits cap) {
+        this.gameHashMb = gameHashMb;
+        this.sharedTable = sharedHashMb > 0 ? new TranspositionTable(sharedHashMb) : null;
+        this.cap = cap;
+
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("service-%d").setDaemon(true).build();
+        for (int i = 0; i < Math.max(1, threadCount); i++) {
+            Searcher searcher = new Searcher(sharedTable, 1, tablebase, options); // Without a shared table, each search brings its game's
+            searcher.useAnalysisCache(cache);
+            Thread thread = factory.newThread(() -> serve(searcher));
+            thread.start();
+        }
+    }
+
+    Session openSession() {
+        return new Session(sharedTable != null ? sharedTable : new TranspositionTable(gameHashMb));
+    }
+
+    /**
+     * Stops the running searches, which still complete with the best move
+     * found so far, and fails the ones still waiting.
+     */
+    void shutdown() {
+        List<Session> waiting;
+        synchronized (this) {
+            shutdown = true;
+            waiting = new ArrayList<>(ready);
+            ready.clear();
+            for (Request request : running) {
+                request.timeManager.stop();
+            }
+            notifyAll();
+        }
+        for (Session session : waiting) {
+            session.failPending();
+        }
+    }
+
+    /** One thread's loop: the next game in turn, its oldest search, and the game back in line if it has more. */
+    private void serve(Searcher searcher) {
+        try {
+            while (true) {
+                Session session;
+                Request request;
+                synchronized (this) {
+                    while (ready.isEmpty() && !shutdown) {
+                        wait();
+                    }
+                    if (shutdown) return;
+
+                    session = ready.poll();
+                    request = session.start();
+                    running.add(request);
+                }
+
+                searcher.useTable(session.table, sharedTable == null);
+                SearchReport report = null;
+                RuntimeException failure = null;
+                try {
+                    searcher.search(request.position.toPosition(), request.timeManager, request.limits.depth, null);
+                    report = searcher.lastReport();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+
+                boolean stillOpen;
+                synchronized (this) {
+                    running.remove(request);
+                    if (sharedTable != null && ++searchesSinceAging >= SHARED_TABLE_AGE_INTERVAL) {
+                        sharedTable.newSearch();
+                        searchesSinceAging = 0;
+                    }
+                    stillOpen = !shutdown;
+                    if (session.finish() && stillOpen) {
+                        ready.add(session);
+                        notify();
+                    }
+                }
+
+                // Completed outside the lock, since whatever waits on the result runs right here
+                if (failure != null) {
+                    request.result.completeExceptionally(failure);
+                } else {
+                    request.result.complete(report);
+                }
+                if (!stillOpen) session.failPending();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            searcher.shutdown();
+        }
+    }
+
+    private static final class Request {
+        final Position.Snapshot position;
+        final SearchLimits limits;
+        final CompletableFuture<SearchReport> result = new CompletableFuture<>();
+        TimeManager timeManager;
+
+        Request(Position.Snapshot position, SearchLimits limits) {
+            this.position = position;
+            this.limits = limits;
+        }
+    }
+
+    /**
+     * One game's searches. A session can be used from any thread; its
+     * searches run in the order they were asked for, one at a time.
+     */
+    final class Session {
+        private final TranspositionTable table;
+
+        /* Guarded by the service */
+        private final ArrayDeque<Request> pending = new ArrayDeque<>();
+        private Request current;
+
+        private Session(TranspositionTable table) {
+            this.table = table;
+        }
+
+        /**
+         * Queues a search of {@code position}, held to the service's cap.
+         *
+         * @return the report of the search, with the move to play; a
+         *         position with no moves gets a report whose move is 0
+         */
+        CompletableFuture<SearchReport> search(Position.Snapshot position, SearchLimits limits) {
+            Request request = new Request(position, limits.within(cap));
+            synchronized (SearchService.this) {
+                if (shutdown) {
+                    request.result.completeExceptionally(new IllegalStateException("service is shut down"));
+                    return request.result;
+                }
+                pending.add(request);
+                if (current == null && pending.size() == 1) {
+                    ready.add(this);
+                    SearchService.this.notify();
+                }
+            }
+            return request.result;
+        }
+
+        /** Ends the running search early; it still completes with the best move found so far. */
+        void stop() {
+            synchronized (SearchService.this) {
+                if (current != null) current.timeManager.stop();
+            }
+        }
+
+        /**
+         * Forgets what earlier searches learned, if this game has a table of
+         * its own and isn't searching right now.
+         */
+        void newGame() {
+            if (table != sharedTable) {
+                synchronized (SearchService.this) {
+                    if (current == null) table.clear();
+                }
+            }
+        }
+
+        /** Takes the oldest search to run; the time manager starts now, so waiting in line isn't charged. */
+        private Request start() {
+            current = pending.poll();
+            current.timeManager = current.limits.newTimeManager();
+            return current;
+        }
+
+        /** @return whether the session has more searches waiting */
+        private boolean finish() {
+            current = null;
+            return !pending.isEmpty();
+        }
+
+        private void failPending() {
+            List<Request> requests;
+            synchronized (SearchService.this) {
+                requests = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Request request : requests) {
+                request.result.completeExceptionally(new IllegalStateException("service is shut down"));
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.grognak;
+
+import java.util.Locale;
+
+/**
+ * Counters from one or more {@link SearchWorker}s. Each worker counts in its
+ * own fields, written only by the thread running it, and copies them into
+ * one of these at a point where the reader can safely look: the main worker
+ * after each iteration, on its own thread, and every worker once the search
+ * is over and its thread has been joined.
+ */
+final class SearchStats {
+    /** Every position searched or quiesced, including the ones the table, a tablebase or a null move settle at once. */
+    long nodes;
+    long prunes;
+    long tableProbes;
+    long tableHits;
+    long tableCuts;
+    long quiescenceNodes;
+    long quiescencePrunes;
+    long researches;
+    long reductions;
+    long nullMoveCuts;
+    long nullMoveFailures;
+    long tablebaseHits;
+    long firstMoveCutoffs;
+    int selDepth;
+
+    void add(SearchStats other) {
+        nodes += other.nodes;
+        prunes += other.prunes;
+        tableProbes += other.tableProbes;
+        tableHits += other.tableHits;
+        tableCuts += other.tableCuts;
+        quiescenceNodes += other.quiescenceNodes;
+        quiescencePrunes += other.quiescencePrunes;
+        researches += other.researches;
+        reductions += other.reductions;
+        nullMoveCuts += other.nullMoveCuts;
+        nullMoveFailures += other.nullMoveFailures;
+        tablebaseHits += other.tablebaseHits;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        selDepth = Math.max(selDepth, other.selDepth);
+    }
+
+    /** Share of table probes that found an entry for the position. */
+    double tableHitRate() {
+        return ratio(tableHits, tableProbes);
+    }
+
+    /** Share of table probes whose entry was deep enough to end the search of the node. */
+    double tableCutRate() {
+        return ratio(tableCuts, tableProbes);
+    }
+
+    /** Share of the beta cutoffs ({@link #prunes}) made by the first move searched: how good the move ordering is. */
+    double firstMoveCutoffRate() {
+        return ratio(firstMoveCutoffs, prunes);
+    }
+
+    private static double ratio(long count, long total) {
+        return total > 0 ? (double) count / total : 0;
+    }
+
+    /** The counters as the members of a JSON object, without the braces. */
+    String toJsonMembers() {
+        return String.format(Locale.ROOT, "\"nodes\":%d,\"selDepth\":%d,\"prunes\":%d,\"tableProbes\":%d,\"tableHits\":%d,\"tableCuts\":%d,"
+                        + "\"tableHitRate\":%.4f,\"tableCutRate\":%.4f,\"firstMoveCutoffs\":%d,\"firstMoveCutoffRate\":%.4f,"
+                        + "\"quiescenceNodes\":%d,\"quiescencePrunes\":%d,\"researches\":%d,\"reductions\":%d,"
+                        + "\"nullMoveCuts\":%d,\"nullMoveFailures\":%d,\"tablebaseHits\":%d",
+                nodes, selDepth, prunes, tableProbes, tableHits, tableCuts,
+                tableHitRate(), tableCutRate(), firstMoveCutoffs, firstMoveCutoffRate(),
+                quiescenceNodes, quiescencePrunes, researches, reductions,
+                nullMoveCuts, nullMoveFailures, tablebaseHits);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nodes=%d, seldepth=%d, prunes=%d, table hits=%.1f%%, table cuts=%.1f%%, first move cutoffs=%.1f%%, "
+                        + "q-nodes=%d, q-prunes=%d, re-searches=%d, reductions=%d, null cuts=%d/%d, tablebase hits=%d",
+                nodes, selDepth, prunes, 100 * tableHitRate(), 100 * tableCutRate(), 100 * firstMoveCutoffRate(),
+                quiescenceNodes, quiescencePrunes, researches, reductions,
+                nullMoveCuts, nullMoveCuts + nullMoveFailures, tablebaseHits);
+    }
+}
@@ -0,0 +1,679 @@
+package com.grognak;
+
+import java.util.Arrays;
+
+/**
+ * One search thread. Each worker owns its own copy of the position, its move
+ * buffers and its counters; the only thing shared between workers is the
+ * transposition table.
+ *
+ * Running several workers on the same root at once is a "Lazy SMP" search:
+ * the workers fill the shared table for each other, and helpers start on a
+ * different depth than the main worker so they don't all walk the same tree
+ * in lockstep.
+ *
+ * Moves are handed out in stages so most of them never need generating at
+ * cut nodes: first the table (or previous iteration's) best move, then the
+ * attacks ranked by victim, and only then the quiet moves, ordered by the
+ * killer moves of the ply and their history score.
+ *
+ * The search is a negamax principal variation search, so every score is from
+ * the point of view of the side to move. At the depth horizon a quiescence
+ * search keeps playing attacks until the position is quiet, so a pending
+ * kill, demotion or King capture is never left to the static evaluation.
+ *
+ * The search is selective in two ways, each behind its own switch so its
+ * effect can be measured: quiet moves ordered late are searched to a reduced
+ * depth first ({@code lmr=false} in the {@link EngineOptions} turns this
+ * off), and a side that can pass the turn and still fail high is cut off
+ * early ({@code nullMove=false}). Passing is not a move in this game and a
+ * side that runs out of moves loses, so a null-move cutoff is only trusted
+ * after a shallower search of the real moves confirms it.
+ *
+ * With a {@link Tablebase} loaded, any position it covers is scored exactly
+ * from it instead of being searched.
+ */
+class SearchWorker implements Runnable {
+    static final int MAX_DEPTH = 100; // Bounded by the preallocated move buffers
+    static final int WIN = 1_000_000_000; // Above any evaluation, and still safe to negate
+    static final int INFINITY = WIN + 1;
+
+    private static final int ASPIRATION_WINDOW = 50; // A third of a mini piece
+    private static final int ASPIRATION_DEPTH = 4;
+
+    private static final int POLL_INTERVAL = 4096; // Nodes between looks at the clock
+    private static final int QUIESCENCE_PLY = 40; // Every attack costs the enemy a life, and there are only 38 in the game
+
+    private static final int LMR_DEPTH = 3;
+    private static final int LMR_MOVES = 3; // Moves searched at full depth before reductions start
+
+    private static final int NULL_MOVE_DEPTH = 3;
+    private static final int NULL_MOVE_MIN_MOVES = 3; // With fewer moves than this, having to move may well be what loses
+    private static final int NULL_MOVE_DEEP = 6; // Depth above which the null move is reduced by 3 instead of 2
+
+    private static final int KILLER_SCORE = 1 << 29;
+    private static final int HISTORY_LIMIT = 1 << 28;
+
+    private static final int STAGE_TABLE_MOVE = 0;
+    private static final int STAGE_GENERATE_ATTACKS = 1;
+    private static final int STAGE_ATTACKS = 2;
+    private static final int STAGE_GENERATE_QUIETS = 3;
+    private static final int STAGE_QUIETS = 4;
+    private static final int STAGE_DONE = 5;
+
+    private final int id;
+    private TranspositionTable table;
+    private final Tablebase tablebase;
+    private final EngineOptions options;
+    private final int[][] moveStack;
+    private final int[][] scoreStack;
+    private final int[] stages;
+    private final int[] cursors;
+    private final int[] moveCounts;
+    private final int[] tableMoves;
+    private final int[] sides;
+    private final int[][] quiescenceMoves;
+    private final int[][] quiescenceScores;
+    private final int[][] killers = new int[Position.MAX_PLY][2];
+    private final int[] history = new int[Position.SQUARES * Position.SQUARES];
+    private int pvMove;
+    private int pvScore;
+    private boolean hasScore;
+    private Position position;
+    private TimeManager timeManager;
+    private boolean aborted;
+    private int polls;
+    private long reportedNodes;
+    private int rootPly;
+
+    /* Counters, written only by the thread running this worker; see addStatsTo */
+    private long nodes;
+    private long prunes;
+    private long tableProbes;
+    private long tableHits;
+    private long tableCuts;
+    private long quiescenceNodes;
+    private long quiescencePrunes;
+    private long researches;
+    private long reductions;
+    private long nullMoveCuts;
+    private long nullMoveFailures;
+    private long tablebaseHits;
+    private long firstMoveCutoffs;
+    private int selDepth;
+
+    /**
+     * @param tablebase the endgame tablebase to probe, or null to search every position
+     */
+    SearchWorker(int id, TranspositionTable table, Tablebase tablebase) {
+        this(id, table, tablebase, EngineOptions.DEFAULT);
+    }
+
+    SearchWorker(int id, TranspositionTable table, Tablebase tablebase, EngineOptions options) {
+        this.id = id;
+        this.table = table;
+        this.tablebase = tablebase;
+        this.options = options;
+        moveStack = new int[MAX_DEPTH + 1][Position.MAX_MOVES];
+        scoreStack = new int[MAX_DEPTH + 1][Position.MAX_MOVES];
+        stages = new int[MAX_DEPTH + 1];
+        cursors = new int[MAX_DEPTH + 1];
+        moveCounts = new int[MAX_DEPTH + 1];
+        tableMoves = new int[MAX_DEPTH + 1];
+        sides = new int[MAX_DEPTH + 1];
+        quiescenceMoves = new int[QUIESCENCE_PLY][Position.MAX_MOVES];
+        quiescenceScores = new int[QUIESCENCE_PLY][Position.MAX_MOVES];
+    }
+
+    void setTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    void setPosition(Position position, TimeManager timeManager) {
+        this.position = position.copy();
+        this.timeManager = timeManager;
+        aborted = false;
+        reportedNodes = 0;
+        rootPly = position.ply();
+        pvMove = 0;
+        hasScore = false;
+        for (int[] killer : killers) {
+            killer[0] = 0;
+            killer[1] = 0;
+        }
+        ageHistory();
+        nodes = 0;
+        prunes = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        tableCuts = 0;
+        quiescenceNodes = 0;
+        quiescencePrunes = 0;
+        researches = 0;
+        reductions = 0;
+        nullMoveCuts = 0;
+        nullMoveFailures = 0;
+        tablebaseHits = 0;
+        firstMoveCutoffs = 0;
+        selDepth = 0;
+    }
+
+    /** Helper loop: deepen until the time manager stops us, leaving the results in the table. */
+    @Override
+    public void run() {
+        for (int depth = 1 + (id & 1); depth <= MAX_DEPTH; depth++) {
+            iterate(depth);
+            if (aborted || timeManager.shouldStop()) {
+                break;
+            }
+        }
+    }
+
+    /** Whether the last {@link #iterate(int)} was cut off before it finished. */
+    boolean wasAborted() {
+        return aborted;
+    }
+
+    private boolean checkAbort() {
+        if (!aborted && ++polls % POLL_INTERVAL == 0) {
+            reportNodes();
+            aborted = timeManager.shouldStop();
+        }
+        return aborted;
+    }
+
+    /** Hands the nodes searched since the last report to the time manager, which counts them for all workers. */
+    void reportNodes() {
+        timeManager.addNodes(nodes - reportedNodes);
+        reportedNodes = nodes;
+    }
+
+    /**
+     * Adds this worker's counters for the current search to {@code stats}.
+     * Only safe on the worker's own thread, or once the search is over.
+     */
+    void addStatsTo(SearchStats stats) {
+        stats.nodes += nodes;
+        stats.prunes += prunes;
+        stats.tableProbes += tableProbes;
+        stats.tableHits += tableHits;
+        stats.tableCuts += tableCuts;
+        stats.quiescenceNodes += quiescenceNodes;
+        stats.quiescencePrunes += quiescencePrunes;
+        stats.researches += researches;
+        stats.reductions += reductions;
+        stats.nullMoveCuts += nullMoveCuts;
+        stats.nullMoveFailures += nullMoveFailures;
+        stats.tablebaseHits += tablebaseHits;
+        stats.firstMoveCutoffs += firstMoveCutoffs;
+        stats.selDepth = Math.max(stats.selDepth, selDepth);
+    }
+
+    /** Score of the last completed iteration, from the root side's point of view. */
+    int getScore() {
+        return pvScore;
+    }
+
+    /**
+     * One iteration of the deepening loop. Once there is a score from the
+     * previous iteration the root is searched with a narrow aspiration window
+     * around it, widening it on the side that failed until the score fits.
+     *
+     * @return the best move found, or 0 if there was none. Only meaningful
+     *         if the search wasn't aborted.
+     */
+    int iterate(int depth) {
+        int alpha = -INFINITY;
+        int beta = INFINITY;
+        int delta = ASPIRATION_WINDOW;
+        if (hasScore && depth >= ASPIRATION_DEPTH && Math.abs(pvScore) < WIN) {
+            alpha = Math.max(pvScore - delta, -INFINITY);
+            beta = Math.min(pvScore + delta, INFINITY);
+        }
+
+        while (true) {
+            int score = searchRoot(depth, alpha, beta);
+            if (aborted) {
+                return pvMove;
+            }
+
+            if (score <= alpha && alpha > -INFINITY) {
+                alpha = Math.max(score - delta, -INFINITY);
+            } else if (score >= beta && beta < INFINITY) {
+                beta = Math.min(score + delta, INFINITY);
+            } else {
+                pvScore = score;
+                hasScore = true;
+                return pvMove;
+            }
+            researches++;
+            delta *= 2;
+        }
+    }
+
+    /**
+     * Searches every root move to {@code depth} with principal variation
+     * search: the first move gets the full window, the rest a null window
+     * that only proves they are worse, re-searched if they turn out not to be.
+     */
+    private int searchRoot(int depth, int alpha, int beta) {
+        nodes++;
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = 0;
+        int moveNumber = 0;
+
+        startMoves(depth, position.sideToMove(), pvMove);
+        int validMove;
+        while ((validMove = nextMove(depth)) != 0) {
+            position.makeMove(validMove);
+
+            if (position.isGameOver()) {
+                position.unmakeMove();
+                pvMove = validMove;
+                return WIN;
+            }
+
+            int score;
+            if (moveNumber == 0) {
+                score = -search(depth - 1, -beta, -alpha, true);
+            } else {
+                score = -search(depth - 1, -alpha - 1, -alpha, true);
+                if (score > alpha && score < beta && !aborted) {
+                    researches++;
+                    score = -search(depth - 1, -beta, -alpha, true);
+                }
+            }
+            position.unmakeMove();
+            if (aborted) {
+                return 0;
+            }
+            moveNumber++;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = validMove;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        // After a fail low every move is only known to be worse than alpha, so keep the old best move
+        if (bestMove != 0 && (bestScore > originalAlpha || pvMove == 0)) {
+            pvMove = bestMove;
+        }
+        return bestScore;
+    }
+
+    /**
+     * Negamax principal variation search; scores are from the side to move's point of view.
+     *
+     * @param nullAllowed false right after a null move, and in the search verifying one
+     */
+    private int search(int depth, int alpha, int beta, boolean nullAllowed) {
+        if (checkAbort()) {
+            return 0;
+        }
+
+        if (tablebase != null) {
+            int score = tablebase.probe(position);
+            if (score != Tablebase.NO_SCORE) {
+                nodes++;
+                tablebaseHits++;
+                return score;
+            }
+        }
+
+        if (depth == 0) {
+            return quiesce(0, alpha, beta); // Counted there
+        }
+        nodes++;
+
+        long entry = table.probe(position);
+        tableProbes++;
+        if (entry != 0) {
+            tableHits++;
+        }
+        if (entry != 0 && TranspositionTable.depth(entry) >= depth) {
+            int score = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                tableCuts++;
+                return score;
+            }
+        }
+
+        int side = position.sideToMove();
+        if (options.nullMove && nullAllowed && beta - alpha == 1 && depth >= NULL_MOVE_DEPTH && Math.abs(beta) < WIN
+                && position.countMoves(side) >= NULL_MOVE_MIN_MOVES && staticScore() >= beta) {
+            int reduction = depth > NULL_MOVE_DEEP ? 3 : 2;
+            position.makeNullMove();
+            int score = -search(Math.max(depth - 1 - reduction, 0), -beta, -beta + 1, false);
+            position.unmakeNullMove();
+            if (aborted) {
+                return 0;
+            }
+
+            if (score >= beta) {
+                // Passing isn't allowed, so check that one of the real moves holds up too
+                int verified = search(depth - reduction, beta - 1, beta, false);
+                if (aborted) {
+                    return 0;
+                }
+                if (verified >= beta) {
+                    nullMoveCuts++;
+                    return Math.min(score, WIN - 1); // A pass proves no forced win
+                }
+                nullMoveFailures++;
+            }
+        }
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = 0;
+        int moveNumber = 0;
+
+        startMoves(depth, side, entry != 0 ? TranspositionTable.move(entry) : 0);
+        int validMove;
+        while ((validMove = nextMove(depth)) != 0) {
+            // Quiet moves this far down the ordering rarely turn out best, so look at them less deeply first
+            int reduction = 0;
+            if (options.lateMoveReductions && depth >= LMR_DEPTH && moveNumber >= LMR_MOVES
+                    && stages[depth] == STAGE_QUIETS && !isKiller(validMove)) {
+                reduction = depth >= 2 * LMR_DEPTH && moveNumber >= 2 * LMR_MOVES ? 2 : 1;
+            }
+
+            position.makeMove(validMove);
+
+            if (position.isGameOver()) {
+                position.unmakeMove();
+                return WIN;
+            }
+
+            int score;
+            if (moveNumber == 0) {
+                score = -search(depth - 1, -beta, -alpha, true);
+            } else {
+                score = -search(depth - 1 - reduction, -alpha - 1, -alpha, true);
+                if (reduction > 0) {
+                    reductions++;
+                    if (score > alpha && !aborted) {
+                        researches++;
+                        score = -search(depth - 1, -alpha - 1, -alpha, true);
+                    }
+                }
+                if (score > alpha && score < beta && !aborted) {
+                    researches++;
+                    score = -search(depth - 1, -beta, -alpha, true);
+                }
+            }
+            position.unmakeMove();
+            if (aborted) {
+                return 0;
+            }
+            moveNumber++;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = validMove;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                prunes++;
+                if (moveNumber == 1) {
+                    firstMoveCutoffs++;
+                }
+                updateCutoff(validMove, depth);
+                break;
+            }
+        }
+
+        if (moveNumber == 0) {
+            return -WIN; // No moves left, the side to move loses
+        }
+
+        table.store(position, bestScore, depth, bound(bestScore, originalAlpha, beta), bestMove);
+        return bestScore;
+    }
+
+    /** Only attacks are searched; the side to move may also "stand pat" on the static score. */
+    private int quiesce(int qply, int alpha, int beta) {
+        if (checkAbort()) {
+            return 0;
+        }
+        nodes++;
+        quiescenceNodes++;
+
+        int side = position.sideToMove();
+        if (position.countMoves(side) == 0) {
+            return -WIN; // No moves left, the side to move loses
+        }
+
+        int bestScore = evaluate();
+        if (bestScore >= beta || qply == QUIESCENCE_PLY) {
+            return bestScore;
+        }
+        alpha = Math.max(alpha, bestScore);
+
+        int[] moves = quiescenceMoves[qply];
+        int[] scores = quiescenceScores[qply];
+        int moveCount = position.generateAttacks(side, moves);
+        for (int i = 0; i < moveCount; i++) {
+            scores[i] = victimValue(position.attackVictim(moves[i]));
+        }
+
+        for (int i = 0; i < moveCount; i++) {
+            position.makeMove(pickMove(moves, scores, moveCount, i));
+
+            if (position.isGameOver()) {
+                position.unmakeMove();
+                return WIN;
+            }
+
+            int score = -quiesce(qply + 1, -beta, -alpha);
+            position.unmakeMove();
+            if (aborted) {
+                return 0;
+            }
+            bestScore = Math.max(bestScore, score);
+            alpha = Math.max(alpha, bestScore);
+
+            if (alpha >= beta) {
+                quiescencePrunes++;
+                break;
+            }
+        }
+
+        return bestScore;
+    }
+
+    /**
+     * Where the quiescence search of {@code root} ends up: the position
+     * after the attacks worth making, where standing pat is best. This is
+     * the kind of position the static score is meant to judge, for tuning
+     * it; nothing here runs during a search.
+     *
+     * @return that position, or null if the attacks decide the game
+     */
+    Position quietPosition(Position root) {
+        setPosition(root, TimeManager.infinite());
+        int[] moves = new int[Position.MAX_MOVES];
+        int score = quiesce(0, -INFINITY, INFINITY);
+        for (int qply = 0; ; qply++) {
+            if (Math.abs(score) >= WIN) return null;
+            if (score == staticScore()) return position.copy();
+
+            // Follow the attack the score came from: the one that scores exactly that, inside a window just around it
+            int nextMove = 0;
+            int moveCount = position.generateAttacks(position.sideToMove(), moves);
+            for (int i = 0; i < moveCount && nextMove == 0; i++) {
+                position.makeMove(moves[i]);
+                if (!position.isGameOver() && -quiesce(qply + 1, -score - 1, -score + 1) == score) {
+                    nextMove = moves[i];
+                }
+                position.unmakeMove();
+            }
+            if (nextMove == 0) return null;
+            position.makeMove(nextMove);
+            score = -score;
+        }
+    }
+
+    private void startMoves(int index, int side, int tableMove) {
+        stages[index] = STAGE_TABLE_MOVE;
+        sides[index] = side;
+        tableMoves[index] = tableMove;
+    }
+
+    /**
+     * @return the next move to search at stack {@code index}, or 0 when there are no more
+     */
+    private int nextMove(int index) {
+        int[] moves = moveStack[index];
+        int[] scores = scoreStack[index];
+
+        while (true) {
+            switch (stages[index]) {
+                case STAGE_TABLE_MOVE:
+                    stages[index] = STAGE_GENERATE_ATTACKS;
+                    int tableMove = tableMoves[index];
+                    if (tableMove != 0 && position.isValidMove(sides[index], tableMove)) {
+                        return tableMove;
+                    }
+                    tableMoves[index] = 0;
+                    break;
+                case STAGE_GENERATE_ATTACKS:
+                    moveCounts[index] = position.generateAttacks(sides[index], moves);
+                    for (int i = 0; i < moveCounts[index]; i++) {
+                        scores[i] = victimValue(position.attackVictim(moves[i]));
+                    }
+                    cursors[index] = 0;
+                    stages[index] = STAGE_ATTACKS;
+                    break;
+                case STAGE_GENERATE_QUIETS:
+                    moveCounts[index] = position.generateQuiets(sides[index], moves);
+                    int[] killer = killers[position.ply()];
+                    for (int i = 0; i < moveCounts[index]; i++) {
+                        int move = moves[i];
+                        if (move == killer[0]) {
+                            scores[i] = KILLER_SCORE + 1;
+                        } else if (move == killer[1]) {
+                            scores[i] = KILLER_SCORE;
+                        } else {
+                            scores[i] = history[historyIndex(move)];
+                        }
+                    }
+                    cursors[index] = 0;
+                    stages[index] = STAGE_QUIETS;
+                    break;
+                case STAGE_ATTACKS:
+                case STAGE_QUIETS:
+                    while (cursors[index] < moveCounts[index]) {
+                        int move = pickMove(moves, scores, moveCounts[index], cursors[index]++);
+                        if (move != tableMoves[index]) {
+                            return move;
+                        }
+                    }
+                    stages[index]++;
+                    break;
+                case STAGE_DONE:
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /** Selection sort, one step at a time: most nodes cut off after a move or two. */
+    private static int pickMove(int[] moves, int[] scores, int count, int i) {
+        int best = i;
+        for (int j = i + 1; j < count; j++) {
+            if (scores[j] > scores[best]) best = j;
+        }
+
+        int move = moves[best];
+        moves[best] = moves[i];
+        moves[i] = move;
+        int score = scores[best];
+        scores[best] = scores[i];
+        scores[i] = score;
+        return move;
+    }
+
+    private static int victimValue(int victim) {
+        switch (victim % 10) {
+            case Position.KING:
+                return 3;
+            case Position.NORM_NINJA:
+            case Position.NORM_SAMURAI:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private boolean isKiller(int move) {
+        int[] killer = killers[position.ply()];
+        return move == killer[0] || move == killer[1];
+    }
+
+    /** Remembers a quiet move that caused a cutoff as a killer and in the history table. */
+    private void updateCutoff(int move, int depth) {
+        if (position.attackVictim(move) != 00) return;
+
+        int[] killer = killers[position.ply()];
+        if (killer[0] != move) {
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+
+        int index = historyIndex(move);
+        history[index] += depth * depth;
+        if (history[index] > HISTORY_LIMIT) {
+            ageHistory();
+        }
+    }
+
+    /** Forgets the history scores too, so the next search explores the same tree a new worker would. */
+    void clearHistory() {
+        Arrays.fill(history, 0);
+    }
+
+    private void ageHistory() {
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 2;
+        }
+    }
+
+    private static int historyIndex(int move) {
+        return Position.from(move) * Position.SQUARES + Position.to(move);
+    }
+
+    private int bound(int score, int a, int b) {
+        if (score <= a) return TranspositionTable.UPPER;
+        if (score >= b) return TranspositionTable.LOWER;
+        return TranspositionTable.EXACT;
+    }
+
+    private int evaluate() {
+        int ply = position.ply() - rootPly;
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+        return staticScore();
+    }
+
+    /** Static evaluation of the worker's position, from the side to move's point of view. */
+    int staticScore() {
+        int score = options.materialWeight*(position.material(Position.CPUAI) - position.material(Position.HUMAN)) +
+                options.mobilityWeight*(position.countMoves(Position.CPUAI) - position.countMoves(Position.HUMAN));
+        return position.sideToMove() == Position.CPUAI ? score : -score;
+    }
+}
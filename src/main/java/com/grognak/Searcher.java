@@ -0,0 +1,303 @@
+package com.grognak;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The search as something to embed: a transposition table, the workers that
+ * share it and the threads the helpers run on. Nothing here prints, so the
+ * interactive {@link Game} and the headless {@link Protocol} drive the same
+ * search and each decide what to show.
+ *
+ * Every search leaves a {@link SearchReport}, which is also sent to the
+ * Flight Recorder when the JVM has one, and appended as a line of JSON to
+ * the file named by {@code -Dkami.telemetry}. All of that happens between
+ * iterations and after the search, never inside it.
+ *
+ * With an {@link AnalysisCache}, a root position that was searched deep
+ * enough before with the same options, or found decided by them, is answered
+ * from the cache, and every search that reaches
+ * {@link AnalysisCache#MIN_DEPTH} or finds the game decided leaves its
+ * result there.
+ *
+ * A searcher runs one search at a time.
+ */
+class Searcher {
+    /**
+     * Told about every iteration of the main worker that finished, or once
+     * with depth 0 when the move comes straight from the tablebase, or once
+     * with the depth it was searched to when it comes from the analysis cache.
+     */
+    interface Listener {
+        void iterationDone(SearchReport.Iteration iteration);
+    }
+
+    private static final boolean FLIGHT_RECORDER = flightRecorderAvailable();
+    private static final String TELEMETRY_PATH = System.getProperty("kami.telemetry");
+
+    private TranspositionTable table;
+    private boolean agePerSearch = true;
+    private final SearchWorker[] workers;
+    private final Tablebase tablebase;
+    private final long fingerprint;
+    private AnalysisCache analysisCache;
+    private final ExecutorService helpers;
+    private volatile SearchReport lastReport;
+
+    /**
+     * @param tablebase the endgame tablebase to consult, or null to search every position
+     */
+    Searcher(int hashMb, int threads, Tablebase tablebase) {
+        this(hashMb, threads, tablebase, EngineOptions.DEFAULT);
+    }
+
+    Searcher(int hashMb, int threads, Tablebase tablebase, EngineOptions options) {
+        this(new TranspositionTable(hashMb), threads, tablebase, options);
+    }
+
+    /**
+     * A searcher on a table someone else owns, for a {@link SearchService}.
+     *
+     * @param table the table to search on, or null if {@link #useTable} is
+     *              called before every search
+     */
+    Searcher(TranspositionTable table, int threads, Tablebase tablebase, EngineOptions options) {
+        this.tablebase = tablebase;
+        fingerprint = options.fingerprint();
+        this.table = table;
+        workers = new SearchWorker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new SearchWorker(i, table, tablebase, options);
+        }
+        helpers = workers.length > 1
+                ? Executors.newFixedThreadPool(workers.length - 1,
+                        new ThreadFactoryBuilder().setNameFormat("search-%d").setDaemon(true).build())
+                : null;
+    }
+
+    /**
+     * Whether this JVM has the {@code jdk.jfr} API (Java 11, and 8u262 on).
+     * Probed here, since {@link FlightRecorderEvents} can't be loaded without it.
+     */
+    private static boolean flightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Searcher.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+        FlightRecorderEvents.setUp();
+        return true;
+    }
+
+    TranspositionTable table() {
+        return table;
+    }
+
+    /**
+     * Searches on {@code table} from now on, for a {@link SearchService}
+     * that keeps a table per game, or one for all games. A table searched by
+     * many games at once is aged by its owner, not by every search.
+     */
+    void useTable(TranspositionTable table, boolean agePerSearch) {
+        this.table = table;
+        this.agePerSearch = agePerSearch;
+        for (SearchWorker worker : workers) {
+            worker.setTable(table);
+        }
+    }
+
+    /** Answers from {@code cache} and stores deep results in it from now on, or stops if it is null. */
+    void useAnalysisCache(AnalysisCache cache) {
+        this.analysisCache = cache;
+    }
+
+    SearchWorker[] workers() {
+        return workers;
+    }
+
+    /** Forgets everything learned in earlier searches. */
+    void newGame() {
+        table.clear();
+    }
+
+    void shutdown() {
+        if (helpers != null) helpers.shutdownNow();
+    }
+
+    /** What the last search did, or null before the first one. */
+    SearchReport lastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Runs the main worker's iterative deepening on {@code root} until the
+     * time manager stops it or {@code maxDepth} is done, while the helper
+     * workers search the same position on the shared table.
+     *
+     * @param listener told about each finished iteration, or null
+     * @return the best move of the last iteration that finished, or 0 if
+     *         the side to move has no moves
+     */
+    int search(Position root, TimeManager timeManager, int maxDepth, Listener listener) {
+        SearchReport report = new SearchReport(workers.length);
+        Object searchEvent = FLIGHT_RECORDER ? FlightRecorderEvents.begin(true) : null;
+        int move = run(root, timeManager, maxDepth, listener, report);
+
+        lastReport = report;
+        if (searchEvent != null) FlightRecorderEvents.commitSearch(searchEvent, report);
+        if (TELEMETRY_PATH != null) writeTelemetry(report);
+        return move;
+    }
+
+    private int run(Position root, TimeManager timeManager, int maxDepth, Listener listener, SearchReport report) {
+        long startNanos = System.nanoTime();
+        AtomicLong allocatedBytes = new AtomicLong();
+        long mainAllocated = SearchReport.threadAllocatedBytes();
+
+        if (root.isGameOver() || root.countMoves(root.sideToMove()) == 0) {
+            report.finish(0, -SearchWorker.WIN, new SearchWorker[0], -1);
+            return 0;
+        }
+
+        if (tablebase != null) {
+            int move = tablebase.bestMove(root);
+            if (move != 0) {
+                int score = tablebase.probe(root);
+                report.tablebaseMove(move, score);
+                report.finish(move, score, new SearchWorker[0], -1);
+                if (listener != null) {
+                    listener.iterationDone(new SearchReport.Iteration(0, move, score, 0, 0, new SearchStats()));
+                }
+                return move;
+            }
+        }
+
+        if (analysisCache != null) {
+            long entry = analysisCache.probe(root, fingerprint);
+            int move = AnalysisCache.move(entry);
+            // A node or time limit can't say how deep it would have got, so anything kept is deep enough for it
+            int wantedDepth = maxDepth < SearchWorker.MAX_DEPTH ? maxDepth : AnalysisCache.MIN_DEPTH;
+            int score = AnalysisCache.score(entry);
+            if (entry != 0 && (AnalysisCache.depth(entry) >= wantedDepth || AnalysisCache.isDecided(score))
+                    && root.isValidMove(root.sideToMove(), move)) {
+                report.cachedMove(move, score, AnalysisCache.depth(entry));
+                report.finish(move, score, new SearchWorker[0], -1);
+                if (listener != null) listener.iterationDone(report.iterations().get(0));
+                return move;
+            }
+        }
+
+        if (agePerSearch) table.newSearch();
+        timeManager.startIterations();
+        for (SearchWorker worker : workers) {
+            worker.setPosition(root, timeManager);
+        }
+
+        CountDownLatch helpersDone = new CountDownLatch(workers.length - 1);
+        for (int i = 1; i < workers.length; i++) {
+            SearchWorker helper = workers[i];
+            helpers.execute(() -> {
+                long allocated = SearchReport.threadAllocatedBytes();
+                try {
+                    helper.run();
+                } finally {
+                    allocatedBytes.addAndGet(SearchReport.threadAllocatedBytes() - allocated);
+                    helpersDone.countDown();
+                }
+            });
+        }
+
+        SearchWorker mainWorker = workers[0];
+        int move = 0;
+        for (int depth = 1; depth <= Math.min(maxDepth, SearchWorker.MAX_DEPTH) && timeManager.canStartIteration(); depth++) {
+            Object iterationEvent = FLIGHT_RECORDER ? FlightRecorderEvents.begin(false) : null;
+            int newMove = mainWorker.iterate(depth);
+            if (mainWorker.wasAborted()) {
+                if (move == 0) move = newMove; // Better than nothing
+                break;
+            }
+
+            if (newMove != 0) {
+                move = newMove;
+            }
+            timeManager.iterationDone();
+
+            mainWorker.reportNodes();
+            SearchStats stats = new SearchStats();
+            mainWorker.addStatsTo(stats);
+            SearchReport.Iteration iteration = new SearchReport.Iteration(depth, newMove, mainWorker.getScore(),
+                    timeManager.nodes(), (System.nanoTime() - startNanos) / 1_000_000L, stats);
+            report.addIteration(iteration);
+            if (iterationEvent != null) FlightRecorderEvents.commitIteration(iterationEvent, iteration);
+            if (listener != null) listener.iterationDone(iteration);
+
+            if (Math.abs(mainWorker.getScore()) >= SearchWorker.WIN) {
+                break; // A King kill or a side out of moves: searching deeper can't change it
+            }
+        }
+
+        timeManager.stop();
+        try {
+            helpersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (move == 0) {
+            // Out of time before a single root move was searched: anything valid will do
+            int[] moves = new int[Position.MAX_MOVES];
+            root.generateMoves(root.sideToMove(), moves);
+            move = moves[0];
+        }
+
+        if (mainAllocated >= 0) {
+            allocatedBytes.addAndGet(SearchReport.threadAllocatedBytes() - mainAllocated);
+        }
+        report.finish(move, mainWorker.getScore(), workers, mainAllocated >= 0 ? allocatedBytes.get() : -1);
+        if (analysisCache != null && !report.iterations().isEmpty()) {
+            SearchReport.Iteration last = report.iterations().get(report.iterations().size() - 1);
+            if (last.move != 0) analysisCache.store(root, fingerprint, last.move, last.score, last.depth);
+        }
+        return move;
+    }
+
+    private static synchronized void writeTelemetry(SearchReport report) {
+        try (Writer writer = new FileWriter(TELEMETRY_PATH, true)) {
+            writer.write(report.toJson());
+            writer.write('\n');
+        } catch (IOException e) {
+            System.err.println("Couldn't write telemetry to " + TELEMETRY_PATH + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The expected line of play: {@code firstMove}, then the best moves the
+     * table holds for the positions that follow.
+     *
+     * @return the number of moves written to {@code line}
+     */
+    int principalVariation(Position root, int firstMove, int[] line) {
+        if (firstMove == 0 || line.length == 0) return 0;
+
+        Position position = root.copy();
+        int length = 0;
+        int move = firstMove;
+        while (true) {
+            line[length++] = move;
+            position.makeMove(move);
+            if (position.isGameOver() || length == line.length) break;
+
+            long entry = table.probe(position);
+            move = entry != 0 ? TranspositionTable.move(entry) : 0;
+            if (move == 0 || !position.isValidMove(position.sideToMove(), move)) break;
+        }
+        return length;
+    }
+}
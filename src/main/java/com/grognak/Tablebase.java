@@ -0,0 +1,260 @@
+package com.grognak;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Endgame tablebase: the exact result of every position with a few pieces
+ * besides the two Kings, as solved by {@link TablebaseGenerator}.
+ *
+ * There is one file per material signature, named after its piece codes in
+ * ascending order ({@code 12-16-25.ktb}), holding one byte per position. The
+ * index of a position is the side to move plus, for each piece in signature
+ * order, its square among the 54 that aren't a King's, in base 54. Pieces
+ * with the same code are listed by ascending square, so a position has
+ * exactly one index.
+ *
+ * A position and its color flip (see {@link Position}) have the same result,
+ * so only the signature with the smaller key of the two has a file, and a
+ * position whose signature doesn't is looked up as its flip. Signatures that
+ * are their own flip, like {@code 12-22}, keep every position as it is.
+ *
+ * An entry is 0 for no position, and otherwise {@code 1 + (distance << 1 | win)}
+ * from the side to move's point of view, where the distance counts plies to
+ * the end of the game: a King kill, or a side left without moves.
+ *
+ * The files are memory-mapped read-only, so probing needs no heap and every
+ * engine process on the machine shares the same pages.
+ */
+class Tablebase {
+    static final int MAX_PIECES = 4;
+    static final int NO_SCORE = Integer.MIN_VALUE;
+    static final String EXTENSION = ".ktb";
+
+    static final int[] PIECE_CODES = { 11, 12, 15, 16, 21, 22, 25, 26 };
+    static final int PIECE_SQUARES = Position.SQUARES - 2;
+
+    private static final int CPUAI_KING_SQUARE = 3; // D8
+    private static final int HUMAN_KING_SQUARE = 52; // D1
+    private static final int MAX_DISTANCE = 126;
+
+    private final MappedByteBuffer[] files;
+    private final int maxPieces;
+
+    private Tablebase(MappedByteBuffer[] files, int maxPieces) {
+        this.files = files;
+        this.maxPieces = maxPieces;
+    }
+
+    /**
+     * Maps every tablebase file in {@code directory}.
+     */
+    static Tablebase open(File directory) throws IOException {
+        File[] list = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (list == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+
+        MappedByteBuffer[] files = new MappedByteBuffer[1 << (5 * MAX_PIECES)];
+        int maxPieces = 0;
+        for (File file : list) {
+            int[] codes = parseSignature(file.getName());
+            if (codes == null) continue;
+
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                if (in.length() != size(codes.length)) {
+                    throw new IOException("Wrong size for " + file);
+                }
+                // The mapping stays valid after the channel is closed
+                files[signatureKey(codes)] = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            }
+            maxPieces = Math.max(maxPieces, codes.length);
+        }
+        return new Tablebase(files, maxPieces);
+    }
+
+    /** Most pieces, besides the Kings, of any signature that was found. */
+    int maxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * @return the exact score for the side to move, {@link SearchWorker#WIN}
+     *         less the distance for a win, or {@link #NO_SCORE} if the
+     *         position isn't in the tablebase
+     */
+    int probe(Position position) {
+        long location = locate(position, maxPieces);
+        if (location < 0) return NO_SCORE;
+
+        MappedByteBuffer file = files[(int) (location >>> 32)];
+        if (file == null) return NO_SCORE;
+
+        return score(file.get((int) location) & 0xFF);
+    }
+
+    /**
+     * The move that wins fastest, or loses slowest, for a position in the tablebase.
+     *
+     * @return the move, or 0 if the position or one of its successors isn't in the tablebase
+     */
+    int bestMove(Position root) {
+        if (probe(root) == NO_SCORE) return 0;
+
+        Position position = root.copy();
+        int[] moves = new int[Position.MAX_MOVES];
+        int count = position.generateMoves(position.sideToMove(), moves);
+
+        int bestMove = 0;
+        int bestScore = -SearchWorker.INFINITY;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            int score = position.isGameOver() ? -SearchWorker.WIN : probe(position);
+            position.unmakeMove();
+
+            if (score == NO_SCORE) return 0;
+            score = -score;
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = moves[i];
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Where {@code position}, or its color flip if that is the one with a
+     * file, is kept.
+     *
+     * @return the signature key in the high half and the index in the low
+     *         half, or -1 if the position has more than {@code maxPieces}
+     *         pieces besides the Kings or is missing one
+     */
+    static long locate(Position position, int maxPieces) {
+        if (position.pieceAt(CPUAI_KING_SQUARE) != Position.pieceCode(Position.CPUAI, Position.KING)
+                || position.pieceAt(HUMAN_KING_SQUARE) != Position.pieceCode(Position.HUMAN, Position.KING)) {
+            return -1;
+        }
+
+        long location = locate(position, maxPieces, false);
+        if (location < 0) return -1;
+
+        long flipLocation = locate(position, maxPieces, true);
+        return flipLocation >>> 32 < location >>> 32 ? flipLocation : location;
+    }
+
+    private static long locate(Position position, int maxPieces, boolean flip) {
+        int key = 0;
+        int index = flip ? 1 - position.sideToMove() : position.sideToMove();
+        int scale = 2;
+        int count = 0;
+        for (int code : PIECE_CODES) {
+            long bits = position.pieces(flip ? Position.flipPiece(code) : code);
+            while (bits != 0) {
+                if (++count > maxPieces) return -1;
+
+                // Turned round, the highest square comes first
+                int square;
+                if (flip) {
+                    int highest = 63 - Long.numberOfLeadingZeros(bits);
+                    bits &= ~(1L << highest);
+                    square = Position.flipSquare(highest);
+                } else {
+                    square = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+
+                key = key * 32 + code;
+                index += pieceSquare(square) * scale;
+                scale *= PIECE_SQUARES;
+            }
+        }
+        return (long) key << 32 | index;
+    }
+
+    /** Whether {@code codes} is the signature that has a file, rather than its color flip. */
+    static boolean isCanonical(int[] codes) {
+        int[] flipped = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            flipped[i] = Position.flipPiece(codes[i]);
+        }
+        Arrays.sort(flipped);
+        return signatureKey(codes) <= signatureKey(flipped);
+    }
+
+    /** Codes are at least 11, so every signature folds to a different key. */
+    static int signatureKey(int[] codes) {
+        int key = 0;
+        for (int code : codes) {
+            key = key * 32 + code;
+        }
+        return key;
+    }
+
+    static String fileName(int[] codes) {
+        StringBuilder name = new StringBuilder();
+        for (int code : codes) {
+            if (name.length() > 0) name.append('-');
+            name.append(code);
+        }
+        return name.append(EXTENSION).toString();
+    }
+
+    private static int[] parseSignature(String name) {
+        String[] parts = name.substring(0, name.length() - EXTENSION.length()).split("-");
+        if (parts.length > MAX_PIECES) return null;
+
+        int[] codes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                codes[i] = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return codes;
+    }
+
+    static int size(int pieces) {
+        int size = 2;
+        for (int i = 0; i < pieces; i++) {
+            size *= PIECE_SQUARES;
+        }
+        return size;
+    }
+
+    /** Board square to its place among the squares a piece can stand on. */
+    static int pieceSquare(int square) {
+        return square - (square > CPUAI_KING_SQUARE ? 1 : 0) - (square > HUMAN_KING_SQUARE ? 1 : 0);
+    }
+
+    static int boardSquare(int pieceSquare) {
+        int square = pieceSquare + (pieceSquare >= CPUAI_KING_SQUARE ? 1 : 0);
+        return square + (square >= HUMAN_KING_SQUARE ? 1 : 0);
+    }
+
+    static int entry(boolean win, int distance) {
+        if (distance > MAX_DISTANCE) {
+            throw new IllegalStateException("Distance " + distance + " doesn't fit in an entry");
+        }
+        return 1 + (distance << 1 | (win ? 1 : 0));
+    }
+
+    static boolean isWin(int entry) {
+        return ((entry - 1) & 1) != 0;
+    }
+
+    static int distance(int entry) {
+        return (entry - 1) >> 1;
+    }
+
+    static int score(int entry) {
+        if (entry == 0) return NO_SCORE;
+        int score = SearchWorker.WIN - distance(entry);
+        return isWin(entry) ? score : -score;
+    }
+}
@@ -0,0 +1,182 @@
+package com.grognak;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline solver for the {@link Tablebase} files:
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.TablebaseGenerator &lt;directory&gt; [pieces]
+ * </pre>
+ *
+ * solves every position with up to {@code pieces} (default 3) pieces besides
+ * the Kings. Every move either advances a piece or attacks, so the game graph
+ * is acyclic and each position is solved once all of its successors are:
+ * a side with no moves has lost, a side with a move into a lost position has
+ * won in one more ply, and any other side has lost as slowly as it can.
+ *
+ * Only one of each pair of signatures that are color flips of each other is
+ * solved and written, since the other is looked up as the flip.
+ *
+ * Attacks are the only way to leave a signature, and each one costs the enemy
+ * a life (a kill or a demotion), so signatures are solved in order of total
+ * lives. Within a signature, successors are solved depth-first on demand.
+ */
+class TablebaseGenerator {
+    private final Map<Integer, byte[]> tables = new HashMap<>();
+    private final int[][] moveStack = new int[Position.MAX_PLY][Position.MAX_MOVES];
+    private final int maxPieces;
+    private int currentKey;
+    private byte[] current;
+
+    private TablebaseGenerator(int maxPieces) {
+        this.maxPieces = maxPieces;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TablebaseGenerator <directory> [pieces]");
+            System.exit(2);
+        }
+        File directory = new File(args[0]);
+        int pieces = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        if (pieces < 1 || pieces > Tablebase.MAX_PIECES) {
+            throw new IllegalArgumentException("Pieces must be between 1 and " + Tablebase.MAX_PIECES);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        new TablebaseGenerator(pieces).generate(directory);
+    }
+
+    private void generate(File directory) throws IOException {
+        List<int[]> signatures = new ArrayList<>();
+        addSignatures(signatures, new int[0], 0);
+        signatures.removeIf(codes -> !Tablebase.isCanonical(codes)); // Their positions are looked up as color flips
+        signatures.sort(Comparator.comparingInt(TablebaseGenerator::lives));
+
+        for (int[] codes : signatures) {
+            long start = System.nanoTime();
+            byte[] table = solve(codes);
+            tables.put(Tablebase.signatureKey(codes), table);
+            if (codes.length == 0) continue; // Kings only: the side to move has lost, no file needed
+
+            File file = new File(directory, Tablebase.fileName(codes));
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(table);
+            }
+            System.out.printf("%s (%d ms)\n", file.getName(), (System.nanoTime() - start) / 1_000_000L);
+        }
+    }
+
+    /** Every multiset of piece codes up to {@code maxPieces}, in ascending order. */
+    private void addSignatures(List<int[]> signatures, int[] codes, int first) {
+        signatures.add(codes);
+        if (codes.length == maxPieces) return;
+
+        for (int i = first; i < Tablebase.PIECE_CODES.length; i++) {
+            int[] longer = new int[codes.length + 1];
+            System.arraycopy(codes, 0, longer, 0, codes.length);
+            longer[codes.length] = Tablebase.PIECE_CODES[i];
+            addSignatures(signatures, longer, i);
+        }
+    }
+
+    private static int lives(int[] codes) {
+        int lives = 0;
+        for (int code : codes) {
+            lives += code % 10 == Position.NORM_NINJA || code % 10 == Position.NORM_SAMURAI ? 2 : 1;
+        }
+        return lives;
+    }
+
+    private byte[] solve(int[] codes) {
+        currentKey = Tablebase.signatureKey(codes);
+        current = new byte[Tablebase.size(codes.length)];
+
+        for (int index = 0; index < current.length; index++) {
+            if (current[index] != 0) continue;
+
+            int[][] board = board(codes, index);
+            if (board != null) {
+                solve(new Position(board, index & 1), 0);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the board for {@code index}, or null if two pieces share a
+     *         square or pieces with the same code aren't in ascending order
+     */
+    private static int[][] board(int[] codes, int index) {
+        int[][] board = new int[Position.HEIGHT][Position.WIDTH];
+        board[0][3] = Position.pieceCode(Position.CPUAI, Position.KING);
+        board[7][3] = Position.pieceCode(Position.HUMAN, Position.KING);
+
+        int rest = index >>> 1;
+        int previous = -1;
+        for (int i = 0; i < codes.length; i++) {
+            int square = Tablebase.boardSquare(rest % Tablebase.PIECE_SQUARES);
+            rest /= Tablebase.PIECE_SQUARES;
+
+            int y = square / Position.WIDTH;
+            int x = square % Position.WIDTH;
+            if (board[y][x] != 00) return null;
+            if (i > 0 && codes[i] == codes[i - 1] && square < previous) return null;
+
+            board[y][x] = codes[i];
+            previous = square;
+        }
+        return board;
+    }
+
+    /**
+     * @return the entry for {@code position}, solving it first if needed
+     */
+    private int solve(Position position, int ply) {
+        long location = Tablebase.locate(position, maxPieces);
+        int key = (int) (location >>> 32);
+        int index = (int) location;
+
+        byte[] table = key == currentKey ? current : tables.get(key);
+        int entry = table[index] & 0xFF;
+        if (entry != 0) return entry;
+        if (table != current) {
+            throw new IllegalStateException("Signature solved out of order");
+        }
+
+        int[] moves = moveStack[ply];
+        int count = position.generateMoves(position.sideToMove(), moves);
+
+        boolean win = false;
+        int distance = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            int child = position.isGameOver() ? Tablebase.entry(false, 0) : solve(position, ply + 1);
+            position.unmakeMove();
+
+            if (!Tablebase.isWin(child)) {
+                if (!win || Tablebase.distance(child) + 1 < distance) {
+                    distance = Tablebase.distance(child) + 1;
+                }
+                win = true;
+            } else if (!win) {
+                distance = Math.max(distance, Tablebase.distance(child) + 1);
+            }
+        }
+
+        entry = Tablebase.entry(win, distance);
+        current[index] = (byte) entry;
+        return entry;
+    }
+}
@@ -0,0 +1,114 @@
+package com.grognak;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deadlines for one search, polled by the search threads themselves.
+ *
+ * The hard deadline is the full budget: once it passes, {@link #shouldStop()}
+ * tells every worker to unwind. The soft deadline is earlier, and together
+ * with the length of the last iteration it decides whether another iteration
+ * is worth starting at all, since an iteration that gets cut off is wasted.
+ *
+ * A pondering search has no deadlines until {@link #ponderHit(long)} starts
+ * the clock, so it keeps everything it found while waiting.
+ *
+ * A node limit can be set on top of either. The workers report the nodes
+ * they searched every few thousand, so the search stops within a few
+ * thousand nodes per thread of the limit.
+ */
+class TimeManager {
+    private static final double SOFT_FRACTION = 0.6;
+    private static final int ITERATION_GROWTH = 3; // An iteration usually takes a few times as long as the one before
+
+    private volatile long start;
+    private volatile long softDeadline;
+    private volatile long hardDeadline;
+    private long iterationStart;
+    private long lastIterationNanos;
+    private volatile boolean pondering;
+    private volatile boolean stopped;
+    private final AtomicLong nodes = new AtomicLong();
+    private volatile long nodeLimit = Long.MAX_VALUE;
+
+    TimeManager(long budgetMillis) {
+        setBudget(budgetMillis);
+        iterationStart = start;
+    }
+
+    static TimeManager forPondering() {
+        TimeManager timeManager = new TimeManager(0);
+        timeManager.pondering = true;
+        return timeManager;
+    }
+
+    /** No deadlines at all: the search runs until {@link #stop()}, or a node or depth limit. */
+    static TimeManager infinite() {
+        return forPondering();
+    }
+
+    void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /** Called by each worker with the nodes it searched since its last report. */
+    void addNodes(long count) {
+        if (nodes.addAndGet(count) >= nodeLimit) {
+            stopped = true;
+        }
+    }
+
+    /** Nodes reported so far, by all workers together. */
+    long nodes() {
+        return nodes.get();
+    }
+
+    private void setBudget(long budgetMillis) {
+        long now = System.nanoTime();
+        softDeadline = now + (long) (budgetMillis * SOFT_FRACTION) * 1_000_000L;
+        hardDeadline = now + budgetMillis * 1_000_000L;
+        start = now;
+    }
+
+    /** The opponent played the move we were pondering on: the budget starts now. */
+    void ponderHit(long budgetMillis) {
+        setBudget(budgetMillis);
+        pondering = false;
+    }
+
+    /** Polled by the search every few thousand nodes. */
+    boolean shouldStop() {
+        if (!stopped && !pondering && System.nanoTime() >= hardDeadline) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    boolean canStartIteration() {
+        if (pondering) return !stopped;
+
+        long now = System.nanoTime();
+        if (stopped || now >= softDeadline) return false;
+
+        return now + lastIterationNanos * ITERATION_GROWTH < hardDeadline;
+    }
+
+    /** The first iteration starts now, not when the budget did, so setting up the search isn't charged to it. */
+    void startIterations() {
+        iterationStart = System.nanoTime();
+    }
+
+    void iterationDone() {
+        long now = System.nanoTime();
+        lastIterationNanos = now - iterationStart;
+        iterationStart = now;
+    }
+
+    long elapsedMillis() {
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+}
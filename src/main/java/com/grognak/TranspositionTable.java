@@ -0,0 +1,165 @@
+package com.grognak;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table.
+ *
+ * The table is one preallocated {@code long[]} split into buckets of two
+ * entries. Each entry is a pair of longs: the Zobrist key XORed with the data,
+ * used to verify hits, and a packed data word:
+ *
+ * <pre>
+ *  bits  0-31  score
+ *  bits 32-43  best move (from | to << 6, 0 if none)
+ *  bits 44-51  depth
+ *  bits 52-53  bound (UPPER, LOWER or EXACT; 0 marks an empty entry)
+ *  bits 54-59  generation
+ * </pre>
+ *
+ * The first entry of a bucket is depth-preferred: it is only replaced by a
+ * deeper (or equally deep) result, or once it is left over from an earlier
+ * search. Everything else goes into the second, always-replace entry.
+ *
+ * Positions are stored under {@link Position#canonicalHash()}, so a position
+ * and its color flip share an entry, with the move kept as played in the
+ * canonical one and turned round for the other on the way in and out.
+ *
+ * The table is shared by all search threads without locking. A probe only
+ * accepts an entry if {@code key ^ data} gives back the probed hash, so a pair
+ * of longs torn by two threads writing at once reads as a miss.
+ */
+class TranspositionTable {
+    static final int UPPER = 1;
+    static final int LOWER = 2;
+    static final int EXACT = 3;
+
+    private static final int BUCKET_LONGS = 4;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+
+    private final long[] table;
+    private final int bucketMask;
+    private int generation;
+
+    TranspositionTable(int sizeMb) {
+        long bytes = Math.max(1, sizeMb) * 1024L * 1024L;
+        int buckets = Integer.highestOneBit((int) Math.min(bytes / BUCKET_BYTES, 1 << 26));
+        table = new long[buckets * BUCKET_LONGS];
+        bucketMask = buckets - 1;
+    }
+
+    /** Ages every stored entry so the depth-preferred slots open up for the new search. */
+    void newSearch() {
+        generation = (generation + 1) & 63;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0);
+        generation = 0;
+    }
+
+    /**
+     * @return the packed data word stored for {@code position} or its color
+     *         flip, with the move as played in {@code position}, or 0 on a miss
+     */
+    long probe(Position position) {
+        long data = probe(position.canonicalHash());
+        if (data == 0 || position.isCanonical()) return data;
+
+        return data & ~(0xFFFL << 32) | (long) Position.flipMove(move(data)) << 32;
+    }
+
+    void store(Position position, int score, int depth, int bound, int move) {
+        store(position.canonicalHash(), score, depth, bound, position.isCanonical() ? move : Position.flipMove(move));
+    }
+
+    /**
+     * @return the packed data word stored for {@code hash}, or 0 on a miss
+     */
+    private long probe(long hash) {
+        int index = bucket(hash);
+        long data = table[index + 1];
+        if ((table[index] ^ data) == hash && data != 0) {
+            return data;
+        }
+        data = table[index + 3];
+        if ((table[index + 2] ^ data) == hash && data != 0) {
+            return data;
+        }
+        return 0;
+    }
+
+    private void store(long hash, int score, int depth, int bound, int move) {
+        int index = bucket(hash);
+        long existing = table[index + 1];
+        boolean sameKey = (table[index] ^ existing) == hash;
+
+        // Keep whatever best move we already knew if this result didn't find one
+        if (move == 0) {
+            long other = table[index + 3];
+            if (sameKey) {
+                move = move(existing);
+            } else if ((table[index + 2] ^ other) == hash) {
+                move = move(other);
+            }
+        }
+
+        long data = (score & 0xFFFFFFFFL)
+                | (long) (move & 0xFFF) << 32
+                | (long) Math.min(depth, 255) << 44
+                | (long) bound << 52
+                | (long) generation << 54;
+
+        if (existing == 0
+                || sameKey
+                || generation(existing) != generation
+                || depth >= depth(existing)) {
+            table[index] = hash ^ data;
+            table[index + 1] = data;
+        } else {
+            table[index + 2] = hash ^ data;
+            table[index + 3] = data;
+        }
+    }
+
+    /**
+     * @return how many of the first thousand entries belong to the current search
+     */
+    int hashfull() {
+        int used = 0;
+        int samples = Math.min(1000, table.length / 2);
+        for (int i = 0; i < samples; i++) {
+            long data = table[i * 2 + 1];
+            if (data != 0 && generation(data) == generation) used++;
+        }
+        return used * 1000 / samples;
+    }
+
+    int sizeMb() {
+        return (int) ((long) table.length * 8 / (1024 * 1024));
+    }
+
+    private int bucket(long hash) {
+        return ((int) hash & bucketMask) * BUCKET_LONGS;
+    }
+
+    static int score(long data) {
+        return (int) data;
+    }
+
+    static int move(long data) {
+        return (int) (data >>> 32) & 0xFFF;
+    }
+
+    static int depth(long data) {
+        return (int) (data >>> 44) & 0xFF;
+    }
+
+    static int bound(long data) {
+        return (int) (data >>> 52) & 3;
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> 54) & 63;
+    }
+}
@@ -0,0 +1,404 @@
+package com.grognak;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fits the {@link EvalWeights} to recorded games, Texel style: the weights
+ * that best predict, through a sigmoid of the evaluation, how the game each
+ * position came from ended.
+ *
+ * <pre>
+ *   java -cp Kami-sama.jar com.grognak.Tune games.txt [--weights start.txt] [--iterations N] [--rate R]
+ *        [--lambda L] [--threads N] [--out weights.txt]
+ * </pre>
+ *
+ * The input is what {@code Match --record} writes: a position as written by
+ * {@link Position#toText()} and the result for the computer side, 1, 0.5 or
+ * 0, per line. The side to move can attack in nearly every position, and
+ * the evaluation isn't meant to judge a position in the middle of an
+ * exchange, so each position is replaced by the quiet one its quiescence
+ * search ends in ({@link SearchWorker#quietPosition}), found in batches on
+ * all the threads, and skipped only if the attacks decide the game.
+ *
+ * Tuning starts from the {@code --weights} file, or the weights the engine
+ * would use, and the result is written to {@code --out} ({@code weights.txt})
+ * for {@code -Dkami.weights} to load. The quiescence search evaluates with
+ * the starting material and mobility weights, but every {@link Position}
+ * carries the tables from {@code -Dkami.weights}, so a {@code --weights}
+ * file has to be given there as well, or the positions would be picked by
+ * one evaluation and fitted from another; the tool refuses if they differ.
+ *
+ * The evaluation is linear in the weights: each piece adds its square's
+ * value times the material weight, and the mobility difference adds the
+ * mobility weight. So the positions are kept only as their features, in a
+ * few flat primitive arrays, at most 55 bytes per position: millions fit in
+ * memory, and each pass of the fit is a tight loop over them, split across
+ * threads. The scale of the sigmoid is fitted first, then every weight at
+ * once by gradient descent with Adam, and the fitted values are rounded to
+ * the integers the engine uses. The material weight stays as it started,
+ * since the tables already set the scale.
+ *
+ * A square that few positions have a piece on says little about its value,
+ * so every weight is also pulled back toward where it started, by
+ * {@code --lambda} times its squared distance in material units (mobility
+ * in its own units). And with fewer than {@link #MIN_POSITIONS} positions
+ * there is nothing worth fitting, so the tool refuses.
+ */
+class Tune {
+    private static final int TABLE_PARAMETERS = EvalWeights.TYPES.length * Position.SQUARES;
+    private static final int MOBILITY = TABLE_PARAMETERS; // The mobility weight comes after the tables
+    private static final int PARAMETERS = TABLE_PARAMETERS + 1;
+
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+    private static final int REPORT_INTERVAL = 100;
+    static final int MIN_POSITIONS = 1000;
+    private static final int LOAD_BATCH = 4096; // Lines handed to a thread at a time
+
+    public static void main(String[] args) throws Exception {
+        String input = null;
+        String output = "weights.txt";
+        String weightsPath = null;
+        EvalWeights start = EvalWeights.DEFAULT;
+        int iterations = 1000;
+        double rate = 1;
+        double lambda = 1e-5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--weights":
+                    weightsPath = args[++i];
+                    start = EvalWeights.read(new File(weightsPath));
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--lambda":
+                    lambda = Double.parseDouble(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    output = args[++i];
+                    break;
+                default:
+                    input = args[i];
+            }
+        }
+        if (input == null) {
+            System.err.println("Usage: Tune games.txt [--weights FILE] [--iterations N] [--rate R] [--lambda L] [--threads N] [--out FILE]");
+            System.exit(2);
+        }
+        if (!start.sameTables(EvalWeights.DEFAULT)) {
+            System.err.println("The positions are evaluated with the tables from -Dkami.weights, so give "
+                    + weightsPath + " there as well");
+            System.exit(2);
+        }
+
+        Tune tune = new Tune(threads, start);
+        try {
+            tune.load(input);
+            if (tune.count < MIN_POSITIONS) {
+                System.err.println("Only " + tune.count + " positions, at least " + MIN_POSITIONS + " are needed to tune on");
+                System.exit(1);
+            }
+            EvalWeights tuned = tune.fit(start, iterations, rate, lambda);
+            tuned.write(new File(output), "Tuned on " + tune.count + " positions from " + new File(input).getName());
+            System.out.println("Wrote " + output);
+        } finally {
+            tune.shutdown();
+        }
+    }
+
+    /*
+     * Position i has the features features[offsets[i]] to features[offsets[i + 1] - 1]:
+     * 1 + the parameter index of each computer piece, and minus that for each
+     * human piece, whose table is turned round.
+     */
+    private short[] features = new short[1 << 16];
+    private int[] offsets = new int[1 << 12];
+    private short[] mobility = new short[1 << 12]; // The computer's moves less the human's
+    private byte[] results = new byte[1 << 12]; // In halves: 2 if the computer won, 0 if the human did
+    private int count;
+
+    private final int threads;
+    private final ExecutorService pool;
+    private final ThreadLocal<SearchWorker> quiescenceWorker;
+
+    /** @param start the weights to pick the quiet positions with, and whose tables every position carries */
+    Tune(int threads, EvalWeights start) {
+        this.threads = Math.max(1, threads);
+        EngineOptions evaluation = new EngineOptions(start.material, start.mobility,
+                EngineOptions.DEFAULT.lateMoveReductions, EngineOptions.DEFAULT.nullMove);
+        quiescenceWorker = ThreadLocal.withInitial(() -> new SearchWorker(0, new TranspositionTable(1), null, evaluation));
+        pool = Executors.newFixedThreadPool(this.threads, new ThreadFactoryBuilder().setNameFormat("tune-%d").setDaemon(true).build());
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Reads the positions, finding each one's quiet position in batches on
+     * the pool, since that takes a quiescence search apiece. Batches are
+     * added in file order, and only a couple per thread are read ahead.
+     */
+    void load(String input) throws IOException, InterruptedException, ExecutionException {
+        int unreadable = 0;
+        int decided = 0;
+        ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8))) {
+            List<String> lines = new ArrayList<>();
+            String line;
+            do {
+                line = in.readLine();
+                if (line != null) lines.add(line);
+                if (lines.size() == LOAD_BATCH || (line == null && !lines.isEmpty())) {
+                    List<String> batch = lines;
+                    pending.add(pool.submit(() -> quietPositions(batch)));
+                    lines = new ArrayList<>();
+                }
+
+                while (!pending.isEmpty() && (pending.size() > threads * 2 || line == null)) {
+                    Batch batch = pending.poll().get();
+                    for (int i = 0; i < batch.positions.size(); i++) {
+                        add(batch.positions.get(i), batch.results.get(i));
+                    }
+                    unreadable += batch.unreadable;
+                    decided += batch.decided;
+                }
+            } while (line != null);
+        }
+        System.out.printf("%d positions, skipped %d decided by attacks and %d unreadable\n", count, decided, unreadable);
+    }
+
+    private Batch quietPositions(List<String> lines) {
+        SearchWorker worker = quiescenceWorker.get();
+        Batch batch = new Batch();
+        for (String line : lines) {
+            line = line.trim();
+            int split = line.lastIndexOf(' ');
+            if (line.isEmpty() || line.startsWith("#") || split < 0) continue;
+
+            Position position;
+            int result;
+            try {
+                position = Position.fromText(line.substring(0, split));
+                result = (int) Math.round(Double.parseDouble(line.substring(split + 1)) * 2);
+            } catch (IllegalArgumentException e) {
+                batch.unreadable++;
+                continue;
+            }
+            if (result < 0 || result > 2 || position.isGameOver()) {
+                batch.unreadable++;
+                continue;
+            }
+
+            Position quiet = worker.quietPosition(position);
+            if (quiet == null) {
+                batch.decided++;
+            } else {
+                batch.positions.add(quiet);
+                batch.results.add(result);
+            }
+        }
+        return batch;
+    }
+
+    private static final class Batch {
+        final List<Position> positions = new ArrayList<>();
+        final List<Integer> results = new ArrayList<>();
+        int unreadable;
+        int decided;
+    }
+
+    private void add(Position position, int result) {
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            mobility = Arrays.copyOf(mobility, offsets.length);
+            results = Arrays.copyOf(results, offsets.length);
+        }
+
+        int next = offsets[count];
+        if (next + Position.SQUARES > features.length) {
+            features = Arrays.copyOf(features, features.length * 2);
+        }
+        for (int square = 0; square < Position.SQUARES; square++) {
+            int piece = position.pieceAt(square);
+            if (piece == 00 || piece % 10 == Position.KING) continue;
+
+            int typeIndex = EvalWeights.typeIndex(piece % 10);
+            if (Position.sideOf(piece) == Position.CPUAI) {
+                features[next++] = (short) (1 + typeIndex * Position.SQUARES + square);
+            } else {
+                features[next++] = (short) -(1 + typeIndex * Position.SQUARES + Position.flipSquare(square));
+            }
+        }
+        mobility[count] = (short) (position.countMoves(Position.CPUAI) - position.countMoves(Position.HUMAN));
+        results[count] = (byte) result;
+        offsets[++count] = next;
+    }
+
+    EvalWeights fit(EvalWeights start, int iterations, double rate, double lambda) throws InterruptedException, ExecutionException {
+        if (count == 0) throw new IllegalStateException("no positions to tune on");
+
+        double[] theta = parameters(start);
+        double[] origin = theta.clone();
+        double[] scale = new double[PARAMETERS];
+        Arrays.fill(scale, start.material);
+        scale[MOBILITY] = 1;
+        double k = fitScale(theta);
+        System.out.printf("Scale %.6f, error %.6f\n", k, error(theta, k, null));
+
+        // Adam: a step per parameter scaled by its own gradient history, so rare squares move as fast as common ones
+        double[] firstMoment = new double[PARAMETERS];
+        double[] secondMoment = new double[PARAMETERS];
+        for (int t = 1; t <= iterations; t++) {
+            double[] gradient = new double[PARAMETERS];
+            double error = error(theta, k, gradient);
+            for (int i = 0; i < PARAMETERS; i++) {
+                gradient[i] += 2 * lambda * (theta[i] - origin[i]) / (scale[i] * scale[i]);
+            }
+            double firstCorrection = 1 - Math.pow(BETA1, t);
+            double secondCorrection = 1 - Math.pow(BETA2, t);
+            for (int i = 0; i < PARAMETERS; i++) {
+                firstMoment[i] = BETA1 * firstMoment[i] + (1 - BETA1) * gradient[i];
+                secondMoment[i] = BETA2 * secondMoment[i] + (1 - BETA2) * gradient[i] * gradient[i];
+                theta[i] -= rate * (firstMoment[i] / firstCorrection) / (Math.sqrt(secondMoment[i] / secondCorrection) + EPSILON);
+            }
+            if (t % REPORT_INTERVAL == 0 || t == iterations) {
+                System.out.printf("Iteration %d, error %.6f, mobility %.2f\n", t, error, theta[MOBILITY]);
+            }
+        }
+
+        EvalWeights tuned = weights(theta, start.material);
+        System.out.printf("Rounded, error %.6f\n", error(parameters(tuned), k, null));
+        return tuned;
+    }
+
+    /** The weights as evaluation units per feature, the way the fit sees them. */
+    private static double[] parameters(EvalWeights weights) {
+        double[] theta = new double[PARAMETERS];
+        for (int t = 0; t < EvalWeights.TYPES.length; t++) {
+            for (int square = 0; square < Position.SQUARES; square++) {
+                theta[t * Position.SQUARES + square] = weights.material * weights.pieceSquare(t, square);
+            }
+        }
+        theta[MOBILITY] = weights.mobility;
+        return theta;
+    }
+
+    private static EvalWeights weights(double[] theta, int material) {
+        int[][] pieceSquare = new int[EvalWeights.TYPES.length][Position.SQUARES];
+        for (int t = 0; t < EvalWeights.TYPES.length; t++) {
+            for (int square = 0; square < Position.SQUARES; square++) {
+                pieceSquare[t][square] = (int) Math.round(theta[t * Position.SQUARES + square] / material);
+            }
+        }
+        return new EvalWeights(material, (int) Math.round(theta[MOBILITY]), pieceSquare);
+    }
+
+    /** The sigmoid scale that fits the starting weights best, by golden section search on its logarithm. */
+    private double fitScale(double[] theta) throws InterruptedException, ExecutionException {
+        double golden = (Math.sqrt(5) - 1) / 2;
+        double low = Math.log(1e-6);
+        double high = Math.log(1e-1);
+        double a = high - golden * (high - low);
+        double b = low + golden * (high - low);
+        double errorA = error(theta, Math.exp(a), null);
+        double errorB = error(theta, Math.exp(b), null);
+        for (int i = 0; i < 40; i++) {
+            if (errorA < errorB) {
+                high = b;
+                b = a;
+                errorB = errorA;
+                a = high - golden * (high - low);
+                errorA = error(theta, Math.exp(a), null);
+            } else {
+                low = a;
+                a = b;
+                errorA = errorB;
+                b = low + golden * (high - low);
+                errorB = error(theta, Math.exp(b), null);
+            }
+        }
+        return Math.exp((low + high) / 2);
+    }
+
+    /**
+     * Mean squared error of the predicted results, split across the threads.
+     *
+     * @param gradient if not null, gets the gradient of the error added to it
+     */
+    private double error(double[] theta, double k, double[] gradient) throws InterruptedException, ExecutionException {
+        List<Future<double[]>> parts = new ArrayList<>();
+        int chunk = (count + threads - 1) / threads;
+        for (int from = 0; from < count; from += chunk) {
+            int start = from;
+            int end = Math.min(count, from + chunk);
+            parts.add(pool.submit(() -> errorSums(theta, k, gradient != null, start, end)));
+        }
+
+        double error = 0;
+        for (Future<double[]> part : parts) {
+            double[] sums = part.get();
+            error += sums[PARAMETERS];
+            if (gradient != null) {
+                for (int i = 0; i < PARAMETERS; i++) {
+                    gradient[i] += sums[i] / count;
+                }
+            }
+        }
+        return error / count;
+    }
+
+    /** @return the gradient sums for positions {@code start} to {@code end}, then their squared error sum */
+    private double[] errorSums(double[] theta, double k, boolean withGradient, int start, int end) {
+        double[] sums = new double[PARAMETERS + 1];
+        for (int i = start; i < end; i++) {
+            double eval = theta[MOBILITY] * mobility[i];
+            for (int f = offsets[i]; f < offsets[i + 1]; f++) {
+                int feature = features[f];
+                eval += feature > 0 ? theta[feature - 1] : -theta[-feature - 1];
+            }
+
+            double predicted = 1 / (1 + Math.exp(-k * eval));
+            double difference = predicted - results[i] * 0.5;
+            sums[PARAMETERS] += difference * difference;
+
+            if (withGradient) {
+                double slope = 2 * difference * k * predicted * (1 - predicted);
+                sums[MOBILITY] += slope * mobility[i];
+                for (int f = offsets[i]; f < offsets[i + 1]; f++) {
+                    int feature = features[f];
+                    if (feature > 0) {
+                        sums[feature - 1] += slope;
+                    } else {
+                        sums[-feature - 1] -= slope;
+                    }
+                }
+            }
+        }
+        return sums;
+    }
+}
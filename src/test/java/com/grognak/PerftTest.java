@@ -0,0 +1,52 @@
+package com.grognak;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The move generator against the reference leaf counts from the starting
+ * position, for either side to move. Depths 6 and 7 take a few seconds, so
+ * they only run with {@code -Dkami.slowTests=true}.
+ */
+public class PerftTest {
+    private static final long[] REFERENCE = { 11, 127, 1591, 20415, 267601, 3544502, 47449094 };
+    private static final int FAST_DEPTH = 5;
+    private static final boolean SLOW_TESTS = Boolean.getBoolean("kami.slowTests");
+
+    @Test
+    public void computerToMove() throws Exception {
+        check(Position.CPUAI, FAST_DEPTH);
+    }
+
+    @Test
+    public void humanToMove() throws Exception {
+        check(Position.HUMAN, FAST_DEPTH);
+    }
+
+    @Test
+    public void computerToMoveDeep() throws Exception {
+        assumeTrue(SLOW_TESTS);
+        check(Position.CPUAI, REFERENCE.length);
+    }
+
+    @Test
+    public void humanToMoveDeep() throws Exception {
+        assumeTrue(SLOW_TESTS);
+        check(Position.HUMAN, REFERENCE.length);
+    }
+
+    @Test
+    public void threadsAgree() throws Exception {
+        Position position = new Position(Game.initialBoard(), Position.CPUAI);
+        assertEquals(REFERENCE[FAST_DEPTH - 1], new Perft(4).count(position, FAST_DEPTH));
+    }
+
+    private static void check(int side, int maxDepth) throws Exception {
+        Perft perft = new Perft(1);
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            assertEquals("depth " + depth, REFERENCE[depth - 1], perft.count(new Position(Game.initialBoard(), side), depth));
+        }
+    }
+}